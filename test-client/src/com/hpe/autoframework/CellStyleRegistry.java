@@ -0,0 +1,256 @@
+package com.hpe.autoframework;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.poi.hssf.usermodel.HSSFCellStyle;
+import org.apache.poi.hssf.util.HSSFColor;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.DataFormat;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.IndexedColors;
+import org.apache.poi.ss.usermodel.Workbook;
+
+/**
+ *
+ * Cell styles of the evidence workbook, each distinct style is created once and shared by the cells.
+ * The style is identified by the kind, the scale of the number format, and whether it shows the difference.
+ * The shared style must not be modified by the caller.
+ *
+ */
+public class CellStyleRegistry {
+
+	/**
+	 * Bordered text cell
+	 */
+	public static final int TEXT = 0;
+
+	/**
+	 * Bordered number cell with the format of the scale
+	 */
+	public static final int NUMERIC = 1;
+
+	/**
+	 * Bordered date cell as number
+	 */
+	public static final int DATE = 2;
+
+	/**
+	 * Column header
+	 */
+	public static final int HEADER = 3;
+
+	/**
+	 * Header of the key column
+	 */
+	public static final int PK_HEADER = 4;
+
+	/**
+	 * Header of the column existing only on one side
+	 */
+	public static final int UNMATCHED_HEADER = 5;
+
+	/**
+	 * Header of the ignored column
+	 */
+	public static final int IGNORED_HEADER = 6;
+
+	/**
+	 * Cell of the ignored column
+	 */
+	public static final int IGNORED = 7;
+
+	/**
+	 * Sheet title
+	 */
+	public static final int TITLE = 8;
+
+	/**
+	 * Font key of the title font, not a color index
+	 */
+	private static final int TITLE_FONT = -1;
+
+	/**
+	 * Registries of the workbooks
+	 */
+	private static final Map<Workbook, CellStyleRegistry> registries_ = new WeakHashMap<Workbook, CellStyleRegistry>();
+
+	/**
+	 * Workbook the styles belong to, weakly referenced not to keep the key of the registries alive
+	 */
+	private WeakReference<Workbook> workbook_;
+
+	/**
+	 * Created styles
+	 */
+	private Map<Integer, CellStyle> styles_ = new HashMap<Integer, CellStyle>();
+
+	/**
+	 * Created fonts
+	 */
+	private Map<Integer, Font> fonts_ = new HashMap<Integer, Font>();
+
+	/**
+	 * Data format of the workbook, created when a format is needed first
+	 */
+	private DataFormat dataFormat_;
+
+	/**
+	 * Constructor
+	 * @param workbook workbook the styles belong to
+	 */
+	private CellStyleRegistry(Workbook workbook) {
+		workbook_ = new WeakReference<Workbook>(workbook);
+	}
+
+	/**
+	 * Get registry of the workbook
+	 * @param workbook workbook
+	 * @return registry shared across the workbook
+	 */
+	public static CellStyleRegistry of(Workbook workbook) {
+		synchronized (registries_) {
+			CellStyleRegistry registry = registries_.get(workbook);
+			if (registry == null) {
+				registry = new CellStyleRegistry(workbook);
+				registries_.put(workbook, registry);
+			}
+			return registry;
+		}
+	}
+
+	/**
+	 * Release registry of the workbook written
+	 * @param workbook workbook
+	 */
+	public static void release(Workbook workbook) {
+		synchronized (registries_) {
+			registries_.remove(workbook);
+		}
+	}
+
+	/**
+	 * Get style
+	 * @param kind kind of the style, TEXT, NUMERIC, ...
+	 * @param diff true: shows the difference   false: same
+	 * @return style
+	 */
+	public CellStyle get(int kind, boolean diff) {
+		return get(kind, 0, diff);
+	}
+
+	/**
+	 * Get style
+	 * @param kind kind of the style, TEXT, NUMERIC, ...
+	 * @param scale scale of the number format, used for NUMERIC only
+	 * @param diff true: shows the difference   false: same
+	 * @return style
+	 */
+	public CellStyle get(int kind, int scale, boolean diff) {
+		if (kind != NUMERIC || scale < 0)
+			scale = 0;
+		Integer key = Integer.valueOf((kind << 16) | (scale << 1) | (diff ? 1 : 0));
+		CellStyle style = styles_.get(key);
+		if (style == null) {
+			style = create(kind, scale, diff);
+			styles_.put(key, style);
+		}
+		return style;
+	}
+
+	/**
+	 * Get number of the created styles
+	 * @return number of the styles
+	 */
+	public int size() {
+		return styles_.size();
+	}
+
+	/**
+	 * Create style
+	 * @param kind kind of the style
+	 * @param scale scale of the number format
+	 * @param diff true: shows the difference   false: same
+	 * @return created style
+	 */
+	private CellStyle create(int kind, int scale, boolean diff) {
+		CellStyle cellStyle = workbook_.get().createCellStyle();
+		if (kind == TITLE) {
+			cellStyle.setFont(getFont(TITLE_FONT));
+			return cellStyle;
+		}
+		if (diff) {
+			cellStyle.setFont(getFont(IndexedColors.RED.getIndex()));
+		} else if (kind == IGNORED) {
+			cellStyle.setFont(getFont(IndexedColors.GREY_25_PERCENT.getIndex()));
+		}
+		switch (kind) {
+		case NUMERIC:
+			cellStyle.setDataFormat(getDataFormat().getFormat(scale == 0 ? "####" : "####." + ExXlsDataSetWriter.ZEROS.substring(0, scale)));
+			break;
+		case DATE:
+			cellStyle.setDataFormat(getDataFormat().getFormat(ExXlsDataSetWriter.DATE_FORMAT_AS_NUMBER_DBUNIT));
+			break;
+		case HEADER:
+			cellStyle.setFillForegroundColor(diff ? HSSFColor.BRIGHT_GREEN.index : HSSFColor.LIGHT_GREEN.index);
+			cellStyle.setFillPattern(HSSFCellStyle.SOLID_FOREGROUND);
+			break;
+		case PK_HEADER:
+			cellStyle.setFillForegroundColor(HSSFColor.BRIGHT_GREEN.index);
+			cellStyle.setFillPattern(HSSFCellStyle.SOLID_FOREGROUND);
+			break;
+		case UNMATCHED_HEADER:
+			cellStyle.setFillForegroundColor(HSSFColor.RED.index);
+			cellStyle.setFillPattern(HSSFCellStyle.SOLID_FOREGROUND);
+			break;
+		case IGNORED_HEADER:
+			cellStyle.setFillForegroundColor(HSSFColor.GREY_25_PERCENT.index);
+			cellStyle.setFillPattern(HSSFCellStyle.SOLID_FOREGROUND);
+			break;
+		default:
+			break;
+		}
+		cellStyle.setBorderRight(CellStyle.BORDER_THIN);
+		cellStyle.setRightBorderColor(IndexedColors.BLACK.getIndex());
+		cellStyle.setBorderBottom(CellStyle.BORDER_THIN);
+		cellStyle.setBottomBorderColor(IndexedColors.BLACK.getIndex());
+		cellStyle.setBorderLeft(CellStyle.BORDER_THIN);
+		cellStyle.setLeftBorderColor(IndexedColors.BLACK.getIndex());
+		cellStyle.setBorderTop(CellStyle.BORDER_THIN);
+		cellStyle.setTopBorderColor(IndexedColors.BLACK.getIndex());
+		return cellStyle;
+	}
+
+	/**
+	 * Get font
+	 * @param key color index of the font, or TITLE_FONT for the title font
+	 * @return font
+	 */
+	private Font getFont(int key) {
+		Font font = fonts_.get(key);
+		if (font == null) {
+			font = workbook_.get().createFont();
+			if (key == TITLE_FONT) {
+				font.setFontName("Arial");
+				font.setFontHeightInPoints((short)18);
+				font.setBoldweight(Font.BOLDWEIGHT_BOLD);
+			} else {
+				font.setColor((short)key);
+			}
+			fonts_.put(key, font);
+		}
+		return font;
+	}
+
+	/**
+	 * Get data format of the workbook
+	 * @return data format
+	 */
+	private DataFormat getDataFormat() {
+		if (dataFormat_ == null)
+			dataFormat_ = workbook_.get().createDataFormat();
+		return dataFormat_;
+	}
+}
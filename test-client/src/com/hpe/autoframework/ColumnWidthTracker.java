@@ -0,0 +1,99 @@
+package com.hpe.autoframework;
+
+import java.util.Arrays;
+
+import org.apache.poi.ss.usermodel.Sheet;
+
+/**
+ *
+ * Column width estimator of the evidence sheet, used instead of Sheet.autoSizeColumn.
+ * The longest text of each column is tracked in characters while the cells are written,
+ * a full-width character counts as two, so no font is measured.
+ * DBResultColumnSizing=none configuration leaves the default widths.
+ *
+ */
+public class ColumnWidthTracker {
+
+	/**
+	 * Max column width in characters, the limit of the sheet
+	 */
+	static final int MAX_WIDTH = 255;
+
+	/**
+	 * Characters added to the longest text for the cell margin
+	 */
+	static final int MARGIN = 2;
+
+	/**
+	 * Longest text of each column in characters
+	 */
+	private int[] widths_ = new int[16];
+
+	/**
+	 * Number of the tracked columns
+	 */
+	private int columns_ = 0;
+
+	/**
+	 * Check whether the column widths are estimated, DBResultColumnSizing configuration
+	 * @return true: estimated   false: sizing is skipped
+	 */
+	public static boolean isEnabled() {
+		return !"none".equalsIgnoreCase(Configure.getConfig("DBResultColumnSizing"));
+	}
+
+	/**
+	 * Track text written to the column
+	 * @param column column index from 0
+	 * @param text text of the cell, the longest line is tracked if multi-line
+	 */
+	public void track(int column, String text) {
+		if (text == null)
+			return;
+		int width = 0;
+		int line = 0;
+		for (int i = 0; i < text.length(); i ++) {
+			char ch = text.charAt(i);
+			if (ch == '\n') {
+				width = Math.max(width, line);
+				line = 0;
+			} else {
+				line += isFullWidth(ch) ? 2 : 1;
+			}
+		}
+		width = Math.max(width, line);
+		if (column >= widths_.length)
+			widths_ = Arrays.copyOf(widths_, Math.max(widths_.length * 2, column + 1));
+		if (width > widths_[column])
+			widths_[column] = width;
+		if (column >= columns_)
+			columns_ = column + 1;
+	}
+
+	/**
+	 * Set the estimated widths to the columns of the sheet
+	 * @param sheet sheet the texts are written
+	 */
+	public void apply(Sheet sheet) {
+		for (int i = 0; i < columns_; i ++) {
+			if (widths_[i] > 0)
+				sheet.setColumnWidth(i, Math.min(widths_[i] + MARGIN, MAX_WIDTH) * 256);
+		}
+	}
+
+	/**
+	 * Check whether the character is displayed in full width
+	 * @param ch character
+	 * @return true: full width   false: half width
+	 */
+	static boolean isFullWidth(char ch) {
+		if (ch < 0x1100)
+			return false;
+		if (ch >= 0xff61 && ch <= 0xffdc)
+			return false;
+		if (ch >= 0xffe8 && ch <= 0xffee)
+			return false;
+		return ch <= 0x115f || ch >= 0x2e80 && ch <= 0xa4cf || ch >= 0xac00 && ch <= 0xd7a3
+			|| ch >= 0xf900 && ch <= 0xfaff || ch >= 0xfe30 && ch <= 0xfe4f || ch >= 0xff00;
+	}
+}
@@ -0,0 +1,78 @@
+package com.hpe.autoframework;
+
+import java.util.List;
+
+/**
+ *
+ * Result of the command executed on remote host.
+ * It includes exit code, standard output lines and standard error lines.
+ *
+ */
+public class CommandResult {
+
+	/**
+	 * Executed command
+	 */
+	private String command_;
+
+	/**
+	 * Exit code
+	 */
+	private int exitCode_;
+
+	/**
+	 * Standard output lines
+	 */
+	private List<String> output_;
+
+	/**
+	 * Standard error lines
+	 */
+	private List<String> error_;
+
+	/**
+	 * Constructor
+	 * @param command executed command
+	 * @param exitCode exit code, -1 if the exit code is not available
+	 * @param output standard output lines
+	 * @param error standard error lines
+	 */
+	public CommandResult(String command, int exitCode, List<String> output, List<String> error) {
+		command_ = command;
+		exitCode_ = exitCode;
+		output_ = output;
+		error_ = error;
+	}
+
+	/**
+	 * Get executed command
+	 * @return executed command
+	 */
+	public String getCommand() {
+		return command_;
+	}
+
+	/**
+	 * Get exit code
+	 * @return exit code, -1 if the exit code is not available
+	 */
+	public int getExitCode() {
+		return exitCode_;
+	}
+
+	/**
+	 * Get standard output lines
+	 * @return standard output lines
+	 */
+	public List<String> getOutput() {
+		return output_;
+	}
+
+	/**
+	 * Get standard error lines
+	 * @return standard error lines
+	 */
+	public List<String> getError() {
+		return error_;
+	}
+}
@@ -40,9 +40,11 @@ public class Configure {
 	/**
 	 * Get configuration value
 	 * @param name configuration key name
-	 * @return value
+	 * @return value, null if the configuration is not loaded or the key doesn't exist
 	 */
 	static public String getConfig(String name) {
+		if (config_ == null)
+			return null;
 		return config_.getProperty(name);
 	}
 
@@ -0,0 +1,318 @@
+package com.hpe.autoframework;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * Connection pool keyed by (host, port, user, password digest).
+ * Authenticated connections are leased by borrow() and returned by release().
+ * Idle connections are checked before leased and evicted after idle time out.
+ * When the connections of the key reach the max and none is returned in the wait time out,
+ * borrow() returns null and the caller connects without the pool.
+ *
+ * @param <T> connection type
+ */
+public class ConnectionPool<T> {
+
+	/**
+	 * Default max number of connections per key
+	 */
+	private static final int DEFAULT_MAX_PER_HOST = 8;
+
+	/**
+	 * Default idle time out in second
+	 */
+	private static final int DEFAULT_IDLE_TIMEOUT = 300;
+
+	/**
+	 * Default wait time out for a returned connection in millisecond
+	 */
+	private static final int DEFAULT_WAIT_TIMEOUT = 1000;
+
+	/**
+	 * Connection factory
+	 *
+	 * @param <T> connection type
+	 */
+	public interface Factory<T> {
+
+		/**
+		 * Create and authenticate a new connection
+		 * @param hostname remote host name
+		 * @param port remote host port
+		 * @param username login user name
+		 * @param password login password
+		 * @return new connection
+		 * @throws IOException throw when connection failed
+		 */
+		public T create(String hostname, int port, String username, String password) throws IOException;
+
+		/**
+		 * Check whether the connection is still alive
+		 * @param conn connection to check
+		 * @return true: alive   false: dead
+		 */
+		public boolean validate(T conn);
+
+		/**
+		 * Close the connection
+		 * @param conn connection to close
+		 */
+		public void destroy(T conn);
+	}
+
+	/**
+	 * Connections of one key
+	 */
+	private class HostPool {
+		/**
+		 * Idle connections, the most recently used first
+		 */
+		Deque<T> idle_ = new ArrayDeque<T>();
+
+		/**
+		 * Last used time of idle connections in nanosecond
+		 */
+		Map<T, Long> lastUsed_ = new IdentityHashMap<T, Long>();
+
+		/**
+		 * Number of leased and being created connections
+		 */
+		int leased_ = 0;
+	}
+
+	/**
+	 * Connection factory
+	 */
+	private Factory<T> factory_;
+
+	/**
+	 * Max number of connections per key
+	 */
+	private int maxPerHost_;
+
+	/**
+	 * Idle time out in nanosecond
+	 */
+	private long idleTimeout_;
+
+	/**
+	 * Wait time out for a returned connection in nanosecond
+	 */
+	private long waitTimeout_;
+
+	/**
+	 * Connections by key
+	 */
+	private Map<String, HostPool> pools_ = new HashMap<String, HostPool>();
+
+	/**
+	 * Keys of leased connections
+	 */
+	private Map<T, String> leasedKeys_ = new IdentityHashMap<T, String>();
+
+	/**
+	 * Constructor
+	 * Max connections per host, idle time out(second) and wait time out(millisecond) are read from
+	 * the configurations prefixed by the specified name, e.g. SshPoolMaxPerHost, SshPoolIdleTimeout and SshPoolWaitTimeout.
+	 * @param name configuration name prefix
+	 * @param factory connection factory
+	 */
+	public ConnectionPool(String name, Factory<T> factory) {
+		factory_ = factory;
+		int maxperhost = Configure.getConfigAsInt(name + "PoolMaxPerHost");
+		int idletimeout = Configure.getConfigAsInt(name + "PoolIdleTimeout");
+		int waittimeout = Configure.getConfigAsInt(name + "PoolWaitTimeout");
+		maxPerHost_ = maxperhost > 0 ? maxperhost : DEFAULT_MAX_PER_HOST;
+		idleTimeout_ = TimeUnit.SECONDS.toNanos(idletimeout > 0 ? idletimeout : DEFAULT_IDLE_TIMEOUT);
+		waitTimeout_ = TimeUnit.MILLISECONDS.toNanos(waittimeout >= 0 ? waittimeout : DEFAULT_WAIT_TIMEOUT);
+
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				closeAll();
+			}
+		});
+	}
+
+	/**
+	 * Borrow a connection, an idle connection is reused if it's alive.
+	 * It waits while the number of connections to the host reaches the max, up to the wait time out.
+	 * @param hostname remote host name
+	 * @param port remote host port
+	 * @param username login user name
+	 * @param password login password
+	 * @return connection, null if no connection is returned in the wait time out
+	 * @throws IOException throw when connection failed
+	 */
+	public T borrow(String hostname, int port, String username, String password) throws IOException {
+		String key = username + "@" + hostname + ":" + port + "#" + digest(password);
+		T conn = null;
+		List<T> evicted;
+		boolean exhausted = false;
+		synchronized (this) {
+			HostPool pool = pools_.get(key);
+			if (pool == null) {
+				pool = new HostPool();
+				pools_.put(key, pool);
+			}
+			evicted = evictIdle(pool);
+			long deadline = System.nanoTime() + waitTimeout_;
+			while (pool.idle_.isEmpty() && pool.idle_.size() + pool.leased_ >= maxPerHost_) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0L) {
+					exhausted = true;
+					break;
+				}
+				try {
+					TimeUnit.NANOSECONDS.timedWait(this, remaining);
+				} catch (InterruptedException exp) {
+					throw new IOException("Connection pool(" + username + "@" + hostname + ":" + port + ") wait interrupted", exp);
+				}
+			}
+			if (!exhausted) {
+				conn = pool.idle_.pollFirst();
+				if (conn != null)
+					pool.lastUsed_.remove(conn);
+				pool.leased_ ++;
+			}
+		}
+		destroy(evicted);
+		if (exhausted)
+			return null;
+
+		if (conn != null) {
+			if (factory_.validate(conn)) {
+				synchronized (this) {
+					leasedKeys_.put(conn, key);
+				}
+				return conn;
+			}
+			// dead connection, create new one
+			factory_.destroy(conn);
+		}
+
+		try {
+			conn = factory_.create(hostname, port, username, password);
+		} catch (IOException | RuntimeException exp) {
+			synchronized (this) {
+				pools_.get(key).leased_ --;
+				notifyAll();
+			}
+			throw exp;
+		}
+		synchronized (this) {
+			leasedKeys_.put(conn, key);
+		}
+		return conn;
+	}
+
+	/**
+	 * Return the connection to the pool
+	 * @param conn connection to return
+	 */
+	public void release(T conn) {
+		List<T> evicted;
+		synchronized (this) {
+			String key = leasedKeys_.remove(conn);
+			if (key == null)
+				return;
+			HostPool pool = pools_.get(key);
+			pool.leased_ --;
+			pool.idle_.addFirst(conn);
+			pool.lastUsed_.put(conn, System.nanoTime());
+			evicted = evictIdle(pool);
+			notifyAll();
+		}
+		destroy(evicted);
+	}
+
+	/**
+	 * Remove the broken connection from the pool and close it
+	 * @param conn connection to remove
+	 */
+	public void invalidate(T conn) {
+		synchronized (this) {
+			String key = leasedKeys_.remove(conn);
+			if (key != null) {
+				pools_.get(key).leased_ --;
+				notifyAll();
+			}
+		}
+		factory_.destroy(conn);
+	}
+
+	/**
+	 * Close all the idle connections
+	 */
+	public void closeAll() {
+		List<T> idle = new ArrayList<T>();
+		synchronized (this) {
+			for (HostPool pool : pools_.values()) {
+				idle.addAll(pool.idle_);
+				pool.idle_.clear();
+				pool.lastUsed_.clear();
+			}
+		}
+		destroy(idle);
+	}
+
+	/**
+	 * Remove the connections idle over the time out
+	 * @param pool connections of one key
+	 * @return removed connections to close
+	 */
+	private List<T> evictIdle(HostPool pool) {
+		List<T> evicted = new ArrayList<T>();
+		long now = System.nanoTime();
+		Iterator<T> it = pool.idle_.descendingIterator();
+		while (it.hasNext()) {
+			T conn = it.next();
+			if (now - pool.lastUsed_.get(conn) < idleTimeout_)
+				break;
+			it.remove();
+			pool.lastUsed_.remove(conn);
+			evicted.add(conn);
+		}
+		return evicted;
+	}
+
+	/**
+	 * Get digest of the password, the connection authenticated by another password is not shared
+	 * @param password login password
+	 * @return hex string of SHA-256 digest
+	 */
+	private static String digest(String password) {
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-256").digest(String.valueOf(password).getBytes(StandardCharsets.UTF_8));
+			StringBuilder sb = new StringBuilder();
+			for (byte b : hash) {
+				sb.append(String.format("%02x", b & 0xff));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException exp) {
+			throw new IllegalStateException(exp);
+		}
+	}
+
+	/**
+	 * Close the connections
+	 * @param conns connections to close
+	 */
+	private void destroy(List<T> conns) {
+		for (T conn : conns) {
+			factory_.destroy(conn);
+		}
+	}
+}
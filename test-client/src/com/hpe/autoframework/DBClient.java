@@ -1,9 +1,9 @@
 package com.hpe.autoframework;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.OutputStream;
 import java.math.BigDecimal;
+import java.nio.file.Path;
 import java.sql.Date;
 import java.sql.Time;
 import java.sql.Timestamp;
@@ -31,6 +31,7 @@ import org.testng.TestException;
 public class DBClient {
 
 	private static final String FILENAME_EXT = ".xls";
+	private static final String FILENAME_EXT_XLSX = ".xlsx";
 	
 	private static AtomicInteger queryResultId = new AtomicInteger(1);
 
@@ -45,6 +46,18 @@ public class DBClient {
 		
 	}
 
+	private static boolean isStreaming() {
+		return "xlsx".equalsIgnoreCase(Configure.getConfig("DBResultFormat"));
+	}
+
+	private static String getFilenameExt() {
+		return isStreaming() ? FILENAME_EXT_XLSX : FILENAME_EXT;
+	}
+
+	private static Path getEvidenceFile(String resultname) {
+		return ExProgressFormatter.getEvidenceDirName().resolve(resultname + getFilenameExt());
+	}
+
 	public void init(String driver, String url, String user, String password, String schema) {
 		try {
 			if (schema == null)
@@ -63,20 +76,22 @@ public class DBClient {
 	
 	public ITable query(String resultname, String query) {
 		IDatabaseConnection dbcon = null;
-		OutputStream ous = null;
 		ITable table = null;
 		try {
 			dbcon = dbTester_.getConnection();
 			dbcon.getConfig().setProperty(DatabaseConfig.PROPERTY_DATATYPE_FACTORY, new ExtDataTypeFactory());
 			table = dbcon.createQueryTable(resultname, query);
-			ous = new FileOutputStream(ExProgressFormatter.getEvidenceDirName().resolve(resultname + FILENAME_EXT).toString());
-			new ExXlsDataSetWriter().write(new DefaultDataSet(table), ous);
+			final ITable result = table;
+			final boolean streaming = isStreaming();
+			EvidenceWriter.submit(getEvidenceFile(resultname), new EvidenceWriter.Task() {
+				public void write(OutputStream out) throws Exception {
+					new ExXlsDataSetWriter(streaming).write(new DefaultDataSet(result), out);
+				}
+			});
 		} catch (Exception exp) {
 			throw new TestException("DB access failed", exp);
 		} finally {
 			try {
-				if (ous != null)
-					ous.close();
 				if (dbcon != null)
 					dbcon.close();
 			} catch (Exception e) {
@@ -122,7 +137,6 @@ public class DBClient {
 	public ITable assertEqual(String expectExcelfilename, String tablename, String resultname, String query, String[] keys, String[] ignoreColumns) {
 		IDataSet dataSet;
 		IDatabaseConnection dbcon = null;
-		OutputStream ous = null;
 		ITable table = null;
 		ITable exptable;
 		boolean issame = false;
@@ -134,20 +148,22 @@ public class DBClient {
 			dbcon.getConfig().setProperty(DatabaseConfig.PROPERTY_DATATYPE_FACTORY, new ExtDataTypeFactory());
 			table = dbcon.createQueryTable(resultname, query);
 			
-			ous = new FileOutputStream(ExProgressFormatter.getEvidenceDirName().resolve(resultname + FILENAME_EXT).toString());
+			Path evidence = getEvidenceFile(resultname);
 			if (ignoreColumns == null)
 				ignoreColumns = new String[0];
 			//issame = new DiffXlsDataSetWriter().write(table, exptable, keys, ignoreColumns, ous, false);
-			DiffXlsDataSetWriter writer = new DiffXlsDataSetWriter();
+			final DiffXlsDataSetWriter writer = new DiffXlsDataSetWriter(isStreaming());
 			writer.write(table, exptable, keys, ignoreColumns, false);
 			issame = writer.isSame();
-			writer.getResultBook().write(ous);
+			EvidenceWriter.submit(evidence, new EvidenceWriter.Task() {
+				public void write(OutputStream out) throws Exception {
+					writer.writeResultBook(out);
+				}
+			});
 		} catch (Exception exp) {
 			throw new TestException("DB access failed", exp);
 		} finally {
 			try {
-				if (ous != null)
-					ous.close();
 				if (dbcon != null)
 					dbcon.close();
 			} catch (Exception e) {
@@ -171,28 +187,30 @@ public class DBClient {
 		return diff(exptable, resultname, query, keys, true);
 	}
 	
-	public ITable diff(ITable exptable, String resultname, String query, String[] keys, boolean diffOnly) {
+	public ITable diff(final ITable exptable, String resultname, String query, final String[] keys, final boolean diffOnly) {
 		assert exptable != null : "Snapshot has not been taken";
 		
 		IDatabaseConnection dbcon = null;
-		OutputStream ous = null;
 		ITable table = null;
 		try {
 			dbcon = dbTester_.getConnection();
 			dbcon.getConfig().setProperty(DatabaseConfig.PROPERTY_DATATYPE_FACTORY, new ExtDataTypeFactory());
 			table = dbcon.createQueryTable(resultname, query);
 			
-			ous = new FileOutputStream(ExProgressFormatter.getEvidenceDirName().resolve(resultname + FILENAME_EXT).toString());
+			final ITable result = table;
+			final boolean streaming = isStreaming();
 			//new DiffXlsDataSetWriter().write(table, exptable, keys, ous, diffOnly);
-			DiffXlsDataSetWriter writer = new DiffXlsDataSetWriter();
-			writer.write(table, exptable, keys, diffOnly);
-			writer.getResultBook().write(ous);
+			EvidenceWriter.submit(getEvidenceFile(resultname), new EvidenceWriter.Task() {
+				public void write(OutputStream out) throws Exception {
+					DiffXlsDataSetWriter writer = new DiffXlsDataSetWriter(streaming);
+					writer.write(result, exptable, keys, diffOnly);
+					writer.writeResultBook(out);
+				}
+			});
 		} catch (Exception exp) {
 			throw new TestException("DB access failed", exp);
 		} finally {
 			try {
-				if (ous != null)
-					ous.close();
 				if (dbcon != null)
 					dbcon.close();
 			} catch (Exception e) {
@@ -7,22 +7,18 @@ import java.io.OutputStream;
 import java.math.BigDecimal;
 import java.text.DateFormatSymbols;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.apache.poi.hssf.usermodel.HSSFCellStyle;
-import org.apache.poi.hssf.usermodel.HSSFFont;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
-import org.apache.poi.hssf.util.HSSFColor;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellStyle;
-import org.apache.poi.ss.usermodel.DataFormat;
-import org.apache.poi.ss.usermodel.Font;
-import org.apache.poi.ss.usermodel.IndexedColors;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
@@ -39,6 +35,7 @@ public class DiffXlsDataSetWriter {
 	private static final String UPDATE_DATE_FORMAT = "yyyy/MM/dd HH:mm:ss.SSS";
     private static final int MAX_CELL_SIZE = 32767;
 	private static final int MAX_ROW_CNT = 65535;
+	private static final int MAX_ROW_CNT_XLSX = 1048575;
 
 	private CellStyle nullCellStyle;
 
@@ -70,7 +67,20 @@ public class DiffXlsDataSetWriter {
 
 	private String[] ignoreColumns;
 
+	private boolean streaming_;
+
+	private ColumnWidthTracker widths_;
+
 	public DiffXlsDataSetWriter() {
+		this(false);
+	}
+
+	/**
+	 * Constructor
+	 * @param streaming true: .xlsx streamed through the row window without the .xls row limit   false: .xls in memory
+	 */
+	public DiffXlsDataSetWriter(boolean streaming) {
+		streaming_ = streaming;
 		resultBook = createWorkbook();
 
 		titleStyle = createTitleCellStyle(resultBook);
@@ -112,6 +122,7 @@ public class DiffXlsDataSetWriter {
 		Column[] columns = metaData.getColumns();
 		Column[] expColumns = expMetaData.getColumns();
 		Sheet sheet = workbook.createSheet(metaData.getTableName());
+		widths_ = ColumnWidthTracker.isEnabled() ? new ColumnWidthTracker() : null;
 
 		workbook.setSheetName(0, metaData.getTableName());
 
@@ -322,12 +333,8 @@ public class DiffXlsDataSetWriter {
 			}		
 		}
 		
-		for (int j = 0; j < columns.length; j++) {
-			sheet.autoSizeColumn(j, true);
-		}
-		for (int j = 0; j < expColumns.length; j++) {
-			sheet.autoSizeColumn(j + columns.length + 1, true);
-		}
+		if (widths_ != null)
+			widths_.apply(sheet);
 		
 		Row titleRow = sheet.createRow(0);
 		Cell titlecell = titleRow.createCell(0);
@@ -392,51 +399,15 @@ public class DiffXlsDataSetWriter {
 	}
 
 	protected static CellStyle createDateCellStyle(Workbook workbook) {
-		DataFormat format = workbook.createDataFormat();
-		short dateFormatCode = format.getFormat(DATE_FORMAT_AS_NUMBER_DBUNIT);
-		CellStyle cellStyle = workbook.createCellStyle();
-		cellStyle.setBorderRight(CellStyle.BORDER_THIN);
-		cellStyle.setRightBorderColor(IndexedColors.BLACK.getIndex());
-		cellStyle.setBorderBottom(CellStyle.BORDER_THIN);
-		cellStyle.setBottomBorderColor(IndexedColors.BLACK.getIndex());
-		cellStyle.setBorderLeft(CellStyle.BORDER_THIN);
-		cellStyle.setLeftBorderColor(IndexedColors.BLACK.getIndex());
-		cellStyle.setBorderTop(CellStyle.BORDER_THIN);
-		cellStyle.setTopBorderColor(IndexedColors.BLACK.getIndex());
-		cellStyle.setDataFormat(dateFormatCode);
-		return cellStyle;
+		return CellStyleRegistry.of(workbook).get(CellStyleRegistry.DATE, false);
 	}
 	
 	protected static CellStyle createNullCellStyle(Workbook workbook) {
-		CellStyle cellStyle = workbook.createCellStyle();
-		cellStyle.setBorderRight(CellStyle.BORDER_THIN);
-		cellStyle.setRightBorderColor(IndexedColors.BLACK.getIndex());
-		cellStyle.setBorderBottom(CellStyle.BORDER_THIN);
-		cellStyle.setBottomBorderColor(IndexedColors.BLACK.getIndex());
-		cellStyle.setBorderLeft(CellStyle.BORDER_THIN);
-		cellStyle.setLeftBorderColor(IndexedColors.BLACK.getIndex());
-		cellStyle.setBorderTop(CellStyle.BORDER_THIN);
-		cellStyle.setTopBorderColor(IndexedColors.BLACK.getIndex());
-		return cellStyle;
+		return CellStyleRegistry.of(workbook).get(CellStyleRegistry.TEXT, false);
 	}
 	
 	protected static CellStyle createDiffDateCellStyle(Workbook workbook) {
-		DataFormat format = workbook.createDataFormat();
-		short dateFormatCode = format.getFormat(DATE_FORMAT_AS_NUMBER_DBUNIT);
-		CellStyle cellStyle = workbook.createCellStyle();
-		Font font = workbook.createFont();
-        font.setColor(IndexedColors.RED.getIndex());
-        cellStyle.setFont(font);
-		cellStyle.setBorderRight(CellStyle.BORDER_THIN);
-		cellStyle.setRightBorderColor(IndexedColors.BLACK.getIndex());
-		cellStyle.setBorderBottom(CellStyle.BORDER_THIN);
-		cellStyle.setBottomBorderColor(IndexedColors.BLACK.getIndex());
-		cellStyle.setBorderLeft(CellStyle.BORDER_THIN);
-		cellStyle.setLeftBorderColor(IndexedColors.BLACK.getIndex());
-		cellStyle.setBorderTop(CellStyle.BORDER_THIN);
-		cellStyle.setTopBorderColor(IndexedColors.BLACK.getIndex());
-		cellStyle.setDataFormat(dateFormatCode);
-		return cellStyle;
+		return CellStyleRegistry.of(workbook).get(CellStyleRegistry.DATE, true);
 	}
 
 	protected void setNullCell(Cell cell) {
@@ -451,6 +422,7 @@ public class DiffXlsDataSetWriter {
 			cell.setCellStyle(dateCellStyle);
 		else
 			cell.setCellStyle(diffDateCellStyle);
+		track(cell, String.valueOf(timeMillis));
 	}
 
 	protected void setDiffDateCell(Cell cell, Date value, Workbook workbook) {
@@ -458,6 +430,7 @@ public class DiffXlsDataSetWriter {
 		cell.setCellValue(timeMillis);
 		cell.setCellType(0);
 		cell.setCellStyle(diffDateCellStyle);
+		track(cell, String.valueOf(timeMillis));
 	}
 	
 	protected void setNumericCell(Cell cell, BigDecimal value, Workbook workbook, boolean same) {
@@ -466,11 +439,13 @@ public class DiffXlsDataSetWriter {
 			cell.setCellStyle(cellStyle);
 		else
 			cell.setCellStyle(diffCellStyle);
+		track(cell, value.toPlainString());
 	}
 	
 	protected void setDiffNumericCell(Cell cell, BigDecimal value, Workbook workbook) {
 		cell.setCellValue(value.doubleValue());
 		cell.setCellStyle(diffCellStyle);
+		track(cell, value.toPlainString());
 	}
 	
 	protected void setTitleCellValue(Cell cell, String value, Workbook workbook) {
@@ -479,13 +454,7 @@ public class DiffXlsDataSetWriter {
 	}
 	
 	private static CellStyle createTitleCellStyle(Workbook workbook) {
-		CellStyle cellStyle = workbook.createCellStyle();
-		HSSFFont txtFont = (HSSFFont)workbook.createFont();
-		txtFont.setFontName("Arial");
-		txtFont.setFontHeightInPoints((short)18);
-		txtFont.setBoldweight(HSSFFont.BOLDWEIGHT_BOLD);
-		cellStyle.setFont(txtFont);
-		return cellStyle;
+		return CellStyleRegistry.of(workbook).get(CellStyleRegistry.TITLE, false);
 	}
 	
 	protected void setHeaderCellValue(Cell cell, String value, Workbook workbook, boolean same) {
@@ -494,39 +463,15 @@ public class DiffXlsDataSetWriter {
 			cell.setCellStyle(headerCellStyle);
 		else
 			cell.setCellStyle(headerDiffCellStyle);
+		track(cell, value);
 	}
 	
 	private static CellStyle createHeaderCellStyle(Workbook workbook) {
-		CellStyle cellStyle = workbook.createCellStyle();
-		cellStyle.setFillForegroundColor(HSSFColor.LIGHT_GREEN.index);
-		cellStyle.setFillPattern(HSSFCellStyle.SOLID_FOREGROUND);
-		cellStyle.setBorderRight(CellStyle.BORDER_THIN);
-		cellStyle.setRightBorderColor(IndexedColors.BLACK.getIndex());
-		cellStyle.setBorderBottom(CellStyle.BORDER_THIN);
-		cellStyle.setBottomBorderColor(IndexedColors.BLACK.getIndex());
-		cellStyle.setBorderLeft(CellStyle.BORDER_THIN);
-		cellStyle.setLeftBorderColor(IndexedColors.BLACK.getIndex());
-		cellStyle.setBorderTop(CellStyle.BORDER_THIN);
-		cellStyle.setTopBorderColor(IndexedColors.BLACK.getIndex());
-		return cellStyle;
+		return CellStyleRegistry.of(workbook).get(CellStyleRegistry.HEADER, false);
 	}
 	
 	private static CellStyle createHeaderDiffCellStyle(Workbook workbook) {
-		CellStyle cellStyle = workbook.createCellStyle();
-		Font font = workbook.createFont();
-        font.setColor(IndexedColors.RED.getIndex());
-        cellStyle.setFont(font);
-		cellStyle.setFillForegroundColor(HSSFColor.BRIGHT_GREEN.index);
-		cellStyle.setFillPattern(HSSFCellStyle.SOLID_FOREGROUND);
-		cellStyle.setBorderRight(CellStyle.BORDER_THIN);
-		cellStyle.setRightBorderColor(IndexedColors.BLACK.getIndex());
-		cellStyle.setBorderBottom(CellStyle.BORDER_THIN);
-		cellStyle.setBottomBorderColor(IndexedColors.BLACK.getIndex());
-		cellStyle.setBorderLeft(CellStyle.BORDER_THIN);
-		cellStyle.setLeftBorderColor(IndexedColors.BLACK.getIndex());
-		cellStyle.setBorderTop(CellStyle.BORDER_THIN);
-		cellStyle.setTopBorderColor(IndexedColors.BLACK.getIndex());
-		return cellStyle;
+		return CellStyleRegistry.of(workbook).get(CellStyleRegistry.HEADER, true);
 	}
 	
 	protected void setCellValue(Cell cell, String value, Workbook workbook, boolean same) {
@@ -535,94 +480,55 @@ public class DiffXlsDataSetWriter {
 			cell.setCellStyle(cellStyle);
 		else
 			cell.setCellStyle(diffCellStyle);
+		track(cell, value);
 	}
 	
 	protected void setDiffCellValue(Cell cell, String value, Workbook workbook) {
 		cell.setCellValue(value);
 		cell.setCellStyle(diffCellStyle);
+		track(cell, value);
 	}
 	
+	private void track(Cell cell, String text) {
+		if (widths_ != null)
+			widths_.track(cell.getColumnIndex(), text);
+	}
+
 	private static CellStyle createCellStyle(Workbook workbook) {
-		CellStyle cellStyle = workbook.createCellStyle();
-		cellStyle.setBorderRight(CellStyle.BORDER_THIN);
-		cellStyle.setRightBorderColor(IndexedColors.BLACK.getIndex());
-		cellStyle.setBorderBottom(CellStyle.BORDER_THIN);
-		cellStyle.setBottomBorderColor(IndexedColors.BLACK.getIndex());
-		cellStyle.setBorderLeft(CellStyle.BORDER_THIN);
-		cellStyle.setLeftBorderColor(IndexedColors.BLACK.getIndex());
-		cellStyle.setBorderTop(CellStyle.BORDER_THIN);
-		cellStyle.setTopBorderColor(IndexedColors.BLACK.getIndex());
-		return cellStyle;
+		return CellStyleRegistry.of(workbook).get(CellStyleRegistry.TEXT, false);
 	}
 
 	private static CellStyle createDiffCellStyle(Workbook workbook) {
-		CellStyle cellStyle = workbook.createCellStyle();
-		Font font = workbook.createFont();
-        font.setColor(IndexedColors.RED.getIndex());
-        cellStyle.setFont(font);
-		cellStyle.setBorderRight(CellStyle.BORDER_THIN);
-		cellStyle.setRightBorderColor(IndexedColors.BLACK.getIndex());
-		cellStyle.setBorderBottom(CellStyle.BORDER_THIN);
-		cellStyle.setBottomBorderColor(IndexedColors.BLACK.getIndex());
-		cellStyle.setBorderLeft(CellStyle.BORDER_THIN);
-		cellStyle.setLeftBorderColor(IndexedColors.BLACK.getIndex());
-		cellStyle.setBorderTop(CellStyle.BORDER_THIN);
-		cellStyle.setTopBorderColor(IndexedColors.BLACK.getIndex());
-		return cellStyle;
+		return CellStyleRegistry.of(workbook).get(CellStyleRegistry.TEXT, true);
 	}
 
 	protected static CellStyle createIgnoredCellStyle(Workbook workbook) {
-		CellStyle cellStyle = createCellStyle(workbook);
-
-		Font font = workbook.createFont();
-		font.setColor(IndexedColors.GREY_25_PERCENT.getIndex());
-		cellStyle.setFont(font);
-		return cellStyle;
+		return CellStyleRegistry.of(workbook).get(CellStyleRegistry.IGNORED, false);
 	}
 
 	private static CellStyle createCommonHeaderCellStyle(Workbook workbook) {
-		CellStyle cellStyle = createCellStyle(workbook);
-
-		cellStyle.setFillForegroundColor(HSSFColor.LIGHT_GREEN.index);
-		cellStyle.setFillPattern(HSSFCellStyle.SOLID_FOREGROUND);
-
-		return cellStyle;
+		return CellStyleRegistry.of(workbook).get(CellStyleRegistry.HEADER, false);
 	}
 
 	private static CellStyle createUnmatchedColHeaderCellStyle(Workbook workbook) {
-		CellStyle cellStyle = createCellStyle(workbook);
-
-		cellStyle.setFillForegroundColor(HSSFColor.RED.index);
-		cellStyle.setFillPattern(HSSFCellStyle.SOLID_FOREGROUND);
-
-		return cellStyle;
+		return CellStyleRegistry.of(workbook).get(CellStyleRegistry.UNMATCHED_HEADER, false);
 	}
 
 	private static CellStyle createPkColHeaderCellStyle(Workbook workbook) {
-		CellStyle cellStyle = createCellStyle(workbook);
-
-		cellStyle.setFillForegroundColor(HSSFColor.BRIGHT_GREEN.index);
-		cellStyle.setFillPattern(HSSFCellStyle.SOLID_FOREGROUND);
-
-		return cellStyle;
+		return CellStyleRegistry.of(workbook).get(CellStyleRegistry.PK_HEADER, false);
 	}
 
 	private static CellStyle createIgnoredColHeaderCellStyle(Workbook workbook) {
-		CellStyle cellStyle = createCellStyle(workbook);
-
-		cellStyle.setFillForegroundColor(HSSFColor.GREY_25_PERCENT.index);
-		cellStyle.setFillPattern(HSSFCellStyle.SOLID_FOREGROUND);
-
-		return cellStyle;
+		return CellStyleRegistry.of(workbook).get(CellStyleRegistry.IGNORED_HEADER, false);
 	}
 
 	protected static CellStyle createUnmatchedColStyle(Workbook workbook) {
-		CellStyle cellStyle = createCellStyle(workbook);
-
-		return cellStyle;
+		return CellStyleRegistry.of(workbook).get(CellStyleRegistry.TEXT, false);
 	}
 
 	protected Workbook createWorkbook() {
+		if (streaming_)
+			return ExXlsDataSetWriter.createStreamingWorkbook();
 		return new HSSFWorkbook();
 	}
 
@@ -639,6 +545,7 @@ public class DiffXlsDataSetWriter {
 		List<String> expColNames = getTableColNameList(expectTable);
 
 		Sheet sht = resultBook.createSheet(table.getTableMetaData().getTableName());
+		widths_ = ColumnWidthTracker.isEnabled() ? new ColumnWidthTracker() : null;
 
 		// title output
 		Row titleRow = sht.createRow(0);
@@ -678,12 +585,14 @@ public class DiffXlsDataSetWriter {
 				Cell actCol = headerRow.createCell(actHdColNo);
 				actCol.setCellStyle(headerStyle);
 				actCol.setCellValue(expColName);
+				track(actCol, expColName);
 				actHdColNo++;
 			}
 			Cell expCol = headerRow.createCell(expHdColNo);
 
 			expCol.setCellStyle(headerStyle);
 			expCol.setCellValue(expColName);
+			track(expCol, expColName);
 			expHdColNo++;
 		}
 		for (String actUnmatchedCol : actUnmatchedColNames) {
@@ -692,25 +601,24 @@ public class DiffXlsDataSetWriter {
 			Cell actCol = headerRow.createCell(actHdColNo);
 			actCol.setCellStyle(unmatchedHeaderStyle);
 			actCol.setCellValue(actUnmatchedCol);
+			track(actCol, actUnmatchedCol);
 			actHdColNo++;
 		}
 
-		// auto size
-		for (int j = 0; j < expHdColNo; j++) {
-			sht.autoSizeColumn(j, true);
-		}
-
 		// data compare part output
-		List<Integer> actUnWroteRowNos = new ArrayList<Integer>();
-		for (int row = 0; row < table.getRowCount(); row++) {
-			actUnWroteRowNos.add(row);
-		}
+		Map<List<String>, ArrayDeque<Integer>> actRowIndex = indexActRows(table, pkColNames);
+		BitSet actWroteRowNos = new BitSet(table.getRowCount());
 		int expRowNo = 0;
 
-		List<Map<Integer, CellInfo>> writeRowList = new ArrayList<Map<Integer, CellInfo>>();
+		String actTitle = titlecell.getStringCellValue();
+		String expTitle = expTitlecell.getStringCellValue();
+		// the last row of the sheet is kept for the note of the rows not written
+		int maxRowNo = streaming_ ? MAX_ROW_CNT_XLSX : MAX_ROW_CNT;
+		int currentRowNo = 2;
+		int truncatedRows = 0;
 
 		for (; expRowNo < expectTable.getRowCount(); expRowNo++) {
-			int actRowNo = getKeyMatchedActRow(table, expectTable, expRowNo, pkColNames, actUnWroteRowNos);
+			int actRowNo = getKeyMatchedActRow(actRowIndex, rowKey(expectTable, expRowNo, pkColNames));
 
 			int actColNo = 0;
 			int expColNo = actColNo + actColNames.size() + 1;
@@ -751,11 +659,18 @@ public class DiffXlsDataSetWriter {
 				actColNo++;
 			}
 			if (!diffOnly || !lineIsSame) {
-				writeRowList.add(writeRow);
+				if (currentRowNo < maxRowNo) {
+					writeRow(sht, currentRowNo++, writeRow, expHdColNo, actHdColNo, actTitle, expTitle);
+				} else {
+					truncatedRows++;
+				}
+			}
+			if (actRowNo >= 0) {
+				actWroteRowNos.set(actRowNo);
 			}
-			actUnWroteRowNos.remove(new Integer(actRowNo));
 		}
-		for (int actRowNo : actUnWroteRowNos) {
+		for (int actRowNo = actWroteRowNos.nextClearBit(0); actRowNo < table.getRowCount();
+				actRowNo = actWroteRowNos.nextClearBit(actRowNo + 1)) {
 			Map<Integer, CellInfo> writeRow = new HashMap<Integer, CellInfo>();
 			isSame = false;
 
@@ -770,41 +685,52 @@ public class DiffXlsDataSetWriter {
 				writeRow.put(actColNo, new CellInfo(table.getValue(actRowNo, actUnmatchedCol), diffCellStyle, actUnmatchedCol));
 				actColNo++;
 			}
-			writeRowList.add(writeRow);
-		}
-
-		int currentRowNo = 2;
-		for (Map<Integer, CellInfo> rowMap : writeRowList) {
-			if (currentRowNo > MAX_ROW_CNT) {
-				break;
+			if (currentRowNo < maxRowNo) {
+				writeRow(sht, currentRowNo++, writeRow, expHdColNo, actHdColNo, actTitle, expTitle);
+			} else {
+				truncatedRows++;
 			}
-			Row currentRow = sht.createRow(currentRowNo);
-			for (int colNo = 0; colNo < expHdColNo; colNo++) {
-				CellInfo info = rowMap.get(colNo);
-				if (info != null) {
-					Cell actCol = currentRow.createCell(colNo);
-					actCol.setCellStyle(info.getStyle());
-					String value = "";
-					if (info.getValue() instanceof byte[] || info.getValue() instanceof Byte[]) {
-						String filePrefix = colNo <= actHdColNo ? titlecell.getStringCellValue() : expTitlecell.getStringCellValue();
-						String fileName = currentRowNo + "_" + filePrefix + "_" + info.getColName();
-						value = "「" + sht.getSheetName() + "/" + fileName + "」をご参照";
-						createFile((byte[]) info.getValue(), fileName, sht.getSheetName());
-					} else if (valueFormat(info.getValue()).length() > MAX_CELL_SIZE) {
-						String filePrefix = colNo <= actHdColNo ? titlecell.getStringCellValue() : expTitlecell.getStringCellValue();
-						String fileName = currentRowNo + "_" + filePrefix + "_" + info.getColName();
-						value = "「" + sht.getSheetName() + "/" + fileName + "」をご参照";
-						createFile(valueFormat(info.getValue()).getBytes(), fileName, sht.getSheetName());
-					} else {
-						value = valueFormat(info.getValue());
-					}
+		}
+		if (truncatedRows > 0) {
+			Cell truncatedCell = sht.createRow(currentRowNo).createCell(0);
+			truncatedCell.setCellStyle(diffCellStyle);
+			if (streaming_)
+				truncatedCell.setCellValue(truncatedRows + " more rows are not written, the sheet reached the max rows of .xlsx");
+			else
+				truncatedCell.setCellValue(truncatedRows + " more rows are not written, set DBResultFormat=xlsx to write them");
+		}
+		if (widths_ != null) {
+			widths_.apply(sht);
+		}
+	}
 
-					actCol.setCellValue(value);
+	private void writeRow(Sheet sht, int currentRowNo, Map<Integer, CellInfo> rowMap, int colCnt, int actHdColNo,
+			String actTitle, String expTitle) throws TypeCastException {
+		Row currentRow = sht.createRow(currentRowNo);
+		for (int colNo = 0; colNo < colCnt; colNo++) {
+			CellInfo info = rowMap.get(colNo);
+			if (info != null) {
+				Cell actCol = currentRow.createCell(colNo);
+				actCol.setCellStyle(info.getStyle());
+				String value = "";
+				if (info.getValue() instanceof byte[] || info.getValue() instanceof Byte[]) {
+					String filePrefix = colNo <= actHdColNo ? actTitle : expTitle;
+					String fileName = currentRowNo + "_" + filePrefix + "_" + info.getColName();
+					value = "「" + sht.getSheetName() + "/" + fileName + "」をご参照";
+					createFile((byte[]) info.getValue(), fileName, sht.getSheetName());
+				} else if (valueFormat(info.getValue()).length() > MAX_CELL_SIZE) {
+					String filePrefix = colNo <= actHdColNo ? actTitle : expTitle;
+					String fileName = currentRowNo + "_" + filePrefix + "_" + info.getColName();
+					value = "「" + sht.getSheetName() + "/" + fileName + "」をご参照";
+					createFile(valueFormat(info.getValue()).getBytes(), fileName, sht.getSheetName());
+				} else {
+					value = valueFormat(info.getValue());
 				}
+
+				actCol.setCellValue(value);
+				track(actCol, value);
 			}
-			currentRowNo++;
 		}
-
 	}
 
 	private void createFile(byte[] fileContent, String fileName, String sheetName) {
@@ -866,37 +792,37 @@ public class DiffXlsDataSetWriter {
 		return unmatchedList;
 	}
 
-	private static int getKeyMatchedActRow(ITable table, ITable expectTable, int expRowNo, List<String> pkList,
-			List<Integer> actMatchedRowNos) throws DataSetException {
-		int tableRowNo = -1;
-		for (int rowIdx : actMatchedRowNos) {
-			if (compareTablesPk(table, rowIdx, expectTable, expRowNo, pkList) == 0) {
-				tableRowNo = rowIdx;
-				break;
+	private static Map<List<String>, ArrayDeque<Integer>> indexActRows(ITable table, List<String> pkList)
+			throws DataSetException {
+		Map<List<String>, ArrayDeque<Integer>> rowIndex = new HashMap<List<String>, ArrayDeque<Integer>>();
+		for (int rowIdx = 0; rowIdx < table.getRowCount(); rowIdx++) {
+			List<String> key = rowKey(table, rowIdx, pkList);
+			ArrayDeque<Integer> rowNos = rowIndex.get(key);
+			if (rowNos == null) {
+				rowNos = new ArrayDeque<Integer>();
+				rowIndex.put(key, rowNos);
 			}
+			rowNos.addLast(rowIdx);
 		}
-		return tableRowNo;
-	}
-
-    private static int compareTablesPk(ITable tarTable, int tarRowNo, ITable srcTable, int srcRowNo,
-            List<String> pkList) throws DataSetException {
-        int compRes = 0;
-        for (String pk : pkList) {
-            if (compRes != 0) {
-                break;
-            }
-            Object tarVal = tarTable.getValue(tarRowNo, pk);
-            Object srcVal = srcTable.getValue(srcRowNo, pk);
-            if (tarVal == null && srcVal != null) {
-                compRes = -1;
-            } else if (tarVal != null && srcVal == null) {
-                compRes = 1;
-            } else if (tarVal != null && srcVal != null) {
-                compRes = DataType.asString(tarVal).compareTo(DataType.asString(srcVal));
-            }
-        }
-        return compRes;
-    }
+		return rowIndex;
+	}
+
+	private static int getKeyMatchedActRow(Map<List<String>, ArrayDeque<Integer>> rowIndex, List<String> key) {
+		ArrayDeque<Integer> rowNos = rowIndex.get(key);
+		if (rowNos == null || rowNos.isEmpty()) {
+			return -1;
+		}
+		return rowNos.pollFirst();
+	}
+
+	private static List<String> rowKey(ITable table, int rowNo, List<String> pkList) throws DataSetException {
+		List<String> key = new ArrayList<String>(pkList.size());
+		for (String pk : pkList) {
+			Object val = table.getValue(rowNo, pk);
+			key.add(val == null ? null : DataType.asString(val));
+		}
+		return key;
+	}
 
 	private static String valueFormat(Object value) throws TypeCastException {
 		if (value == null) {
@@ -971,4 +897,18 @@ public class DiffXlsDataSetWriter {
 	public Workbook getResultBook() {
 		return resultBook;
 	}
+
+	/**
+	 * Write the result workbook, and delete the temporary files of the streaming one
+	 * @param out output stream
+	 * @throws IOException throw when I/O error happens
+	 */
+	public void writeResultBook(OutputStream out) throws IOException {
+		try {
+			resultBook.write(out);
+			out.flush();
+		} finally {
+			ExXlsDataSetWriter.dispose(resultBook);
+		}
+	}
 }
@@ -0,0 +1,216 @@
+package com.hpe.autoframework;
+
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.TestException;
+
+/**
+ *
+ * Asynchronous evidence file writer.
+ * The step hands the rendering of the evidence file to the background threads and continues,
+ * all the submitted files are written by the end of the scenario.
+ * When the queue is full, the submitting thread writes the file by itself.
+ * The failure of the background writing is thrown by the next submit or flush in the scenario,
+ * or reported by the formatter at the end of the scenario.
+ *
+ */
+public class EvidenceWriter {
+
+	/**
+	 * Default number of writer threads
+	 */
+	private static final int DEFAULT_THREADS = 1;
+
+	/**
+	 * Default number of the files waiting in the queue
+	 */
+	private static final int DEFAULT_QUEUE_SIZE = 16;
+
+	/**
+	 * Evidence file rendering
+	 */
+	public interface Task {
+		/**
+		 * Write the evidence into the file
+		 * @param out output stream of the evidence file
+		 * @throws Exception throw when the rendering or I/O fails
+		 */
+		void write(OutputStream out) throws Exception;
+	}
+
+	/**
+	 * Writer threads, null before the first submit or if the writing is synchronous
+	 */
+	private static ThreadPoolExecutor executor_;
+
+	/**
+	 * Synchronous writing flag, EvidenceWriterThreads=0 configuration
+	 */
+	private static boolean synchronous_ = false;
+
+	/**
+	 * Files not written yet
+	 */
+	private static final List<Future<?>> pending_ = new ArrayList<Future<?>>();
+
+	/**
+	 * Failure of the background writing not thrown yet
+	 */
+	private static TestException exp_;
+
+	/**
+	 * Submit evidence file to write
+	 * @param file evidence file path, resolved by the caller in the current evidence directory
+	 * @param task rendering of the evidence
+	 */
+	public static void submit(final Path file, final Task task) {
+		checkException();
+		Runnable job = new Runnable() {
+			public void run() {
+				write(file, task);
+			}
+		};
+		ThreadPoolExecutor executor = getExecutor();
+		if (executor == null) {
+			job.run();
+			checkException();
+			return;
+		}
+		// submitted out of the lock, the full queue makes this thread write the file
+		Future<?> future = executor.submit(job);
+		synchronized (pending_) {
+			for (Iterator<Future<?>> it = pending_.iterator(); it.hasNext();) {
+				if (it.next().isDone())
+					it.remove();
+			}
+			pending_.add(future);
+		}
+	}
+
+	/**
+	 * Wait until all the submitted files are written
+	 * @throws TestException throw when the background writing failed
+	 */
+	public static void flush() {
+		waitPending();
+		checkException();
+	}
+
+	/**
+	 * Wait until all the submitted files are written, and take the failure not thrown yet.
+	 * Call this method at the end of each scenario, so the failure is not thrown in the next scenario.
+	 * @return failure of the background writing in the scenario, null if none
+	 */
+	public static TestException flushAll() {
+		waitPending();
+		synchronized (pending_) {
+			TestException exp = exp_;
+			exp_ = null;
+			return exp;
+		}
+	}
+
+	/**
+	 * Write evidence file
+	 * @param file evidence file path
+	 * @param task rendering of the evidence
+	 */
+	private static void write(Path file, Task task) {
+		try (OutputStream out = new FileOutputStream(file.toString())) {
+			task.write(out);
+		} catch (Throwable exp) {
+			// Error is also kept, e.g. NoClassDefFoundError of the missing library
+			setException(new TestException("Evidence " + file + " writing failed", exp));
+		}
+	}
+
+	/**
+	 * Keep the first failure of the background writing
+	 * @param exp failure
+	 */
+	private static void setException(TestException exp) {
+		synchronized (pending_) {
+			if (exp_ == null)
+				exp_ = exp;
+		}
+	}
+
+	/**
+	 * Wait for all the pending files
+	 */
+	private static void waitPending() {
+		for (;;) {
+			Future<?> future;
+			synchronized (pending_) {
+				if (pending_.isEmpty())
+					return;
+				future = pending_.remove(0);
+			}
+			boolean interrupted = false;
+			for (;;) {
+				try {
+					future.get();
+					break;
+				} catch (InterruptedException exp) {
+					interrupted = true;
+				} catch (ExecutionException exp) {
+					// the failure escaped from write
+					setException(new TestException("Evidence writing failed", exp.getCause()));
+					break;
+				}
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Throw the failure of the background writing
+	 */
+	private static void checkException() {
+		TestException exp;
+		synchronized (pending_) {
+			exp = exp_;
+			exp_ = null;
+		}
+		if (exp != null)
+			throw exp;
+	}
+
+	/**
+	 * Get writer threads, created at the first call.
+	 * Number of threads and queue size are read from EvidenceWriterThreads and EvidenceWriterQueueSize configuration if they exist.
+	 * @return writer threads, null if the writing is synchronous
+	 */
+	private static synchronized ThreadPoolExecutor getExecutor() {
+		if (executor_ != null || synchronous_)
+			return executor_;
+		int threads = Configure.getConfigAsInt("EvidenceWriterThreads");
+		int queuesize = Configure.getConfigAsInt("EvidenceWriterQueueSize");
+		if (threads == 0) {
+			synchronous_ = true;
+			return null;
+		}
+		threads = threads > 0 ? threads : DEFAULT_THREADS;
+		executor_ = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<Runnable>(queuesize > 0 ? queuesize : DEFAULT_QUEUE_SIZE), new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "EvidenceWriter");
+					thread.setDaemon(true);
+					return thread;
+				}
+			}, new ThreadPoolExecutor.CallerRunsPolicy());
+		return executor_;
+	}
+}
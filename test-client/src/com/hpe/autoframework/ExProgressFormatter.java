@@ -132,6 +132,11 @@ public class ExProgressFormatter implements Formatter, Reporter, ColorAware {
 
     @Override
     public void endOfScenarioLifeCycle(Scenario scenario) {
+        TermLogWriter.flushAll();
+        // the evidence failure is reported in this scenario, not thrown in the next one
+        TestException evidenceFailure = EvidenceWriter.flushAll();
+        if (evidenceFailure != null && scenarioStatus_.equals(Result.PASSED))
+        	scenarioStatus_ = Result.FAILED;
     	int total = passedSteps_ + undefinedSteps_ + pendingSteps_ + skippedSteps_ + failedSteps_;
     	out.append(" " + scenarioStatus_ + "  " + total + " steps (" 
     			+ passedSteps_ + " " + Result.PASSED + "  " 
@@ -141,6 +146,10 @@ public class ExProgressFormatter implements Formatter, Reporter, ColorAware {
     			+ skippedSteps_ + " " + "skipped" 
     			+ ")");
         out.println();
+        if (evidenceFailure != null) {
+        	out.append("  " + evidenceFailure.getMessage() + ": " + evidenceFailure.getCause());
+        	out.println();
+        }
     }
 
     @Override
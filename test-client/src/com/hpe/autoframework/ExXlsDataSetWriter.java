@@ -5,16 +5,13 @@ import java.io.OutputStream;
 import java.math.BigDecimal;
 import java.util.Date;
 
-import org.apache.poi.hssf.usermodel.HSSFCellStyle;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
-import org.apache.poi.hssf.util.HSSFColor;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellStyle;
-import org.apache.poi.ss.usermodel.DataFormat;
-import org.apache.poi.ss.usermodel.IndexedColors;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.dbunit.dataset.Column;
 import org.dbunit.dataset.DataSetException;
 import org.dbunit.dataset.IDataSet;
@@ -22,13 +19,31 @@ import org.dbunit.dataset.ITable;
 import org.dbunit.dataset.ITableIterator;
 import org.dbunit.dataset.ITableMetaData;
 import org.dbunit.dataset.datatype.DataType;
+import org.testng.TestException;
 
 public class ExXlsDataSetWriter {
 	public static final String ZEROS = "0000000000000000000000000000000000000000000000000000";
 	public static final String DATE_FORMAT_AS_NUMBER_DBUNIT = "####################";
+	static final int DEFAULT_ROW_WINDOW = 100;
 
 	private CellStyle dateCellStyle;
 
+	private boolean streaming_;
+
+	private ColumnWidthTracker widths_;
+
+	public ExXlsDataSetWriter() {
+		this(false);
+	}
+
+	/**
+	 * Constructor
+	 * @param streaming true: .xlsx streamed through the row window   false: .xls in memory
+	 */
+	public ExXlsDataSetWriter(boolean streaming) {
+		streaming_ = streaming;
+	}
+
 	public void write(IDataSet dataSet, OutputStream out) throws IOException, DataSetException {
 
 		Workbook workbook = createWorkbook();
@@ -41,6 +56,7 @@ public class ExXlsDataSetWriter {
 			ITable table = iterator.getTable();
 			ITableMetaData metaData = table.getTableMetaData();
 			Sheet sheet = workbook.createSheet(metaData.getTableName());
+			widths_ = ColumnWidthTracker.isEnabled() ? new ColumnWidthTracker() : null;
 
 			workbook.setSheetName(index, metaData.getTableName());
 
@@ -72,31 +88,22 @@ public class ExXlsDataSetWriter {
 				}
 			}
 
-			for (int j = 0; j < columns.length; j++) {
-				sheet.autoSizeColumn(j, true);
-			}
+			if (widths_ != null)
+				widths_.apply(sheet);
 			
 			index++;
 		}
 
-		workbook.write(out);
-		out.flush();
+		try {
+			workbook.write(out);
+			out.flush();
+		} finally {
+			dispose(workbook);
+		}
 	}
 
 	protected static CellStyle createDateCellStyle(Workbook workbook) {
-		DataFormat format = workbook.createDataFormat();
-		short dateFormatCode = format.getFormat(DATE_FORMAT_AS_NUMBER_DBUNIT);
-		CellStyle cellStyle = workbook.createCellStyle();
-		cellStyle.setBorderRight(CellStyle.BORDER_THIN);
-		cellStyle.setRightBorderColor(IndexedColors.BLACK.getIndex());
-		cellStyle.setBorderBottom(CellStyle.BORDER_THIN);
-		cellStyle.setBottomBorderColor(IndexedColors.BLACK.getIndex());
-		cellStyle.setBorderLeft(CellStyle.BORDER_THIN);
-		cellStyle.setLeftBorderColor(IndexedColors.BLACK.getIndex());
-		cellStyle.setBorderTop(CellStyle.BORDER_THIN);
-		cellStyle.setTopBorderColor(IndexedColors.BLACK.getIndex());
-		cellStyle.setDataFormat(dateFormatCode);
-		return cellStyle;
+		return CellStyleRegistry.of(workbook).get(CellStyleRegistry.DATE, false);
 	}
 
 	protected void setDateCell(Cell cell, Date value, Workbook workbook) {
@@ -104,69 +111,61 @@ public class ExXlsDataSetWriter {
 		cell.setCellValue(timeMillis);
 		cell.setCellType(0);
 		cell.setCellStyle(dateCellStyle);
+		track(cell, String.valueOf(timeMillis));
 	}
 
 	protected void setNumericCell(Cell cell, BigDecimal value, Workbook workbook) {
-
 		cell.setCellValue(value.doubleValue());
-
-		DataFormat df = workbook.createDataFormat();
-		int scale = value.scale();
-		short format;
-		if (scale <= 0) {
-			format = df.getFormat("####");
-		} else {
-			String zeros = createZeros(value.scale());
-			format = df.getFormat("####." + zeros);
-		}
-		CellStyle cellStyle = workbook.createCellStyle();
-		cellStyle.setDataFormat(format);
-		cellStyle.setBorderRight(CellStyle.BORDER_THIN);
-		cellStyle.setRightBorderColor(IndexedColors.BLACK.getIndex());
-		cellStyle.setBorderBottom(CellStyle.BORDER_THIN);
-		cellStyle.setBottomBorderColor(IndexedColors.BLACK.getIndex());
-		cellStyle.setBorderLeft(CellStyle.BORDER_THIN);
-		cellStyle.setLeftBorderColor(IndexedColors.BLACK.getIndex());
-		cellStyle.setBorderTop(CellStyle.BORDER_THIN);
-		cellStyle.setTopBorderColor(IndexedColors.BLACK.getIndex());
-		cell.setCellStyle(cellStyle);
+		cell.setCellStyle(CellStyleRegistry.of(workbook).get(CellStyleRegistry.NUMERIC, value.scale(), false));
+		track(cell, value.toPlainString());
 	}
 	
 	protected void setHeaderCellValue(Cell cell, String value, Workbook workbook) {
 		cell.setCellValue(value);
-		CellStyle cellStyle = workbook.createCellStyle();
-		cellStyle.setFillForegroundColor(HSSFColor.LIGHT_GREEN.index);
-		cellStyle.setFillPattern(HSSFCellStyle.SOLID_FOREGROUND);
-		cellStyle.setBorderRight(CellStyle.BORDER_THIN);
-		cellStyle.setRightBorderColor(IndexedColors.BLACK.getIndex());
-		cellStyle.setBorderBottom(CellStyle.BORDER_THIN);
-		cellStyle.setBottomBorderColor(IndexedColors.BLACK.getIndex());
-		cellStyle.setBorderLeft(CellStyle.BORDER_THIN);
-		cellStyle.setLeftBorderColor(IndexedColors.BLACK.getIndex());
-		cellStyle.setBorderTop(CellStyle.BORDER_THIN);
-		cellStyle.setTopBorderColor(IndexedColors.BLACK.getIndex());
-		cell.setCellStyle(cellStyle);
+		cell.setCellStyle(CellStyleRegistry.of(workbook).get(CellStyleRegistry.HEADER, false));
+		track(cell, value);
 	}
 	
 	protected void setCellValue(Cell cell, String value, Workbook workbook) {
 		cell.setCellValue(value);
-		CellStyle cellStyle = workbook.createCellStyle();
-		cellStyle.setBorderRight(CellStyle.BORDER_THIN);
-		cellStyle.setRightBorderColor(IndexedColors.BLACK.getIndex());
-		cellStyle.setBorderBottom(CellStyle.BORDER_THIN);
-		cellStyle.setBottomBorderColor(IndexedColors.BLACK.getIndex());
-		cellStyle.setBorderLeft(CellStyle.BORDER_THIN);
-		cellStyle.setLeftBorderColor(IndexedColors.BLACK.getIndex());
-		cellStyle.setBorderTop(CellStyle.BORDER_THIN);
-		cellStyle.setTopBorderColor(IndexedColors.BLACK.getIndex());
-		cell.setCellStyle(cellStyle);
+		cell.setCellStyle(CellStyleRegistry.of(workbook).get(CellStyleRegistry.TEXT, false));
+		track(cell, value);
 	}
 
-	private static String createZeros(int count) {
-		return ZEROS.substring(0, count);
+	private void track(Cell cell, String text) {
+		if (widths_ != null)
+			widths_.track(cell.getColumnIndex(), text);
 	}
 
 	protected Workbook createWorkbook() {
+		if (streaming_)
+			return createStreamingWorkbook();
 		return new HSSFWorkbook();
 	}
+
+	/**
+	 * Create .xlsx workbook keeping only the last rows of each sheet in memory,
+	 * the older rows are flushed to the temporary file.
+	 * The number of the rows is DBResultRowWindow configuration, 100 if not configured.
+	 * It needs poi-ooxml, poi-ooxml-schemas and xmlbeans jars in the class path.
+	 * @return streaming workbook
+	 */
+	static Workbook createStreamingWorkbook() {
+		int window = Configure.getConfigAsInt("DBResultRowWindow");
+		try {
+			return new SXSSFWorkbook(window > 0 ? window : DEFAULT_ROW_WINDOW);
+		} catch (LinkageError exp) {
+			throw new TestException("DBResultFormat=xlsx needs poi-ooxml, poi-ooxml-schemas and xmlbeans jars in the class path", exp);
+		}
+	}
+
+	/**
+	 * Release the cell styles of the workbook, and delete the temporary files of the streaming one
+	 * @param workbook workbook written
+	 */
+	static void dispose(Workbook workbook) {
+		CellStyleRegistry.release(workbook);
+		if (workbook instanceof SXSSFWorkbook)
+			((SXSSFWorkbook)workbook).dispose();
+	}
 }
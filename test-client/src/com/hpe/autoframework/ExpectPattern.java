@@ -0,0 +1,75 @@
+package com.hpe.autoframework;
+
+import java.util.regex.Pattern;
+
+/**
+ *
+ * Pattern to wait for by SshClient.expect() and the action invoked when it matches.
+ * The pattern is matched against the received text including line feeds,
+ * so it can match across line boundaries.
+ *
+ */
+public class ExpectPattern {
+
+	/**
+	 * Compiled pattern
+	 */
+	private Pattern pattern_;
+
+	/**
+	 * Action invoked with the matched text, null if no action
+	 */
+	private Proc action_;
+
+	/**
+	 * Constructor
+	 * @param regex regular expression to wait for
+	 */
+	public ExpectPattern(String regex) {
+		this(Pattern.compile(regex), null);
+	}
+
+	/**
+	 * Constructor
+	 * @param regex regular expression to wait for
+	 * @param action action invoked with the matched text
+	 */
+	public ExpectPattern(String regex, Proc action) {
+		this(Pattern.compile(regex), action);
+	}
+
+	/**
+	 * Constructor
+	 * @param pattern compiled pattern to wait for
+	 * @param action action invoked with the matched text, null if no action
+	 */
+	public ExpectPattern(Pattern pattern, Proc action) {
+		pattern_ = pattern;
+		action_ = action;
+	}
+
+	/**
+	 * Create the pattern which matches the literal text
+	 * @param text literal text to wait for
+	 * @return expect pattern
+	 */
+	public static ExpectPattern literal(String text) {
+		return new ExpectPattern(Pattern.compile(Pattern.quote(text)), null);
+	}
+
+	/**
+	 * Get compiled pattern
+	 * @return compiled pattern
+	 */
+	public Pattern getPattern() {
+		return pattern_;
+	}
+
+	/**
+	 * Get action invoked with the matched text
+	 * @return action, null if no action
+	 */
+	public Proc getAction() {
+		return action_;
+	}
+}
@@ -0,0 +1,155 @@
+package com.hpe.autoframework;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.TestException;
+
+/**
+ *
+ * Result of the command executed on multiple hosts by SshFanOut.
+ * It includes the command result or the failure of each host in order of the hosts.
+ *
+ */
+public class FanOutResult {
+
+	/**
+	 * Result of one host
+	 */
+	protected class Entry {
+		String hostname_;
+		CommandResult result_;
+		Throwable exception_;
+
+		Entry(String hostname, CommandResult result, Throwable exception) {
+			hostname_ = hostname;
+			result_ = result;
+			exception_ = exception;
+		}
+	}
+
+	/**
+	 * Executed command
+	 */
+	private String command_;
+
+	/**
+	 * Results of hosts
+	 */
+	private List<Entry> entries_ = new ArrayList<Entry>();
+
+	/**
+	 * Constructor
+	 * @param command executed command
+	 */
+	public FanOutResult(String command) {
+		command_ = command;
+	}
+
+	/**
+	 * Add the command result of the host
+	 * @param hostname host name
+	 * @param result command result
+	 */
+	void addResult(String hostname, CommandResult result) {
+		entries_.add(new Entry(hostname, result, null));
+	}
+
+	/**
+	 * Add the failure of the host
+	 * @param hostname host name
+	 * @param exception exception of connection failure, command failure or time out
+	 */
+	void addFailure(String hostname, Throwable exception) {
+		entries_.add(new Entry(hostname, null, exception));
+	}
+
+	/**
+	 * Get executed command
+	 * @return executed command
+	 */
+	public String getCommand() {
+		return command_;
+	}
+
+	/**
+	 * Get number of hosts
+	 * @return number of hosts
+	 */
+	public int size() {
+		return entries_.size();
+	}
+
+	/**
+	 * Get host name
+	 * @param index index of host
+	 * @return host name
+	 */
+	public String getHostname(int index) {
+		return entries_.get(index).hostname_;
+	}
+
+	/**
+	 * Get command result of the host
+	 * @param index index of host
+	 * @return command result, null if the host failed
+	 */
+	public CommandResult getResult(int index) {
+		return entries_.get(index).result_;
+	}
+
+	/**
+	 * Get failure of the host
+	 * @param index index of host
+	 * @return exception, null if the command is executed
+	 */
+	public Throwable getException(int index) {
+		return entries_.get(index).exception_;
+	}
+
+	/**
+	 * Get exit code of the host
+	 * @param index index of host
+	 * @return exit code, -1 if the host failed
+	 */
+	public int getExitCode(int index) {
+		CommandResult result = entries_.get(index).result_;
+		if (result == null)
+			return -1;
+		return result.getExitCode();
+	}
+
+	/**
+	 * Get the host names which failed or whose exit code is not the expected one
+	 * @param expectExitCode expected exit code
+	 * @return failed host names
+	 */
+	public List<String> getFailedHosts(int expectExitCode) {
+		List<String> hosts = new ArrayList<String>();
+		for (Entry entry : entries_) {
+			if (entry.result_ == null || entry.result_.getExitCode() != expectExitCode)
+				hosts.add(entry.hostname_);
+		}
+		return hosts;
+	}
+
+	/**
+	 * Check all the hosts executed the command with exit code 0
+	 */
+	public void checkExitCode() {
+		checkExitCode(0);
+	}
+
+	/**
+	 * Check all the hosts executed the command with the expected exit code
+	 * @param expectExitCode expected exit code
+	 */
+	public void checkExitCode(int expectExitCode) {
+		for (Entry entry : entries_) {
+			if (entry.exception_ != null)
+				throw new TestException("command(" + command_ + ") failed on " + entry.hostname_, entry.exception_);
+		}
+		List<String> hosts = getFailedHosts(expectExitCode);
+		assert hosts.isEmpty() : "command(" + command_ + ") failed on " + hosts;
+	}
+}
@@ -0,0 +1,270 @@
+package com.hpe.autoframework;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *
+ * Set of the log assertions evaluated in one pass over the log file, and their report.
+ * Each assertion is a RegexPattern pipeline, checked in either way as LogGrep does.
+ * Assertion: every line passed to the last pattern must satisfy it, as grep(LogInfo, RegexPattern).
+ * Count: the lines matching the first pattern must be at least the count, as grep(LogInfo, RegexPattern, int).
+ * The count ignores the following patterns and the anti flag of the first pattern as grep(LogInfo, RegexPattern, int) does.
+ *
+ */
+public class GrepReport {
+
+	/**
+	 * Max number of offending lines kept for each assertion
+	 */
+	static final int MAX_OFFENDING_LINES = 100;
+
+	/**
+	 * Assertion and its result
+	 */
+	private class Entry {
+		RegexPattern pattern_;
+		int matchcount_;
+		long count_ = 0L;
+		long firstLine_ = -1L;
+		long lastLine_ = -1L;
+		List<MappedGrep.Match> offending_ = new ArrayList<MappedGrep.Match>();
+		long offendingCount_ = 0L;
+
+		Entry(RegexPattern pattern, int matchcount) {
+			pattern_ = pattern;
+			matchcount_ = matchcount;
+		}
+	}
+
+	/**
+	 * Assertions
+	 */
+	private List<Entry> entries_ = new ArrayList<Entry>();
+
+	/**
+	 * Log file name the report is made from
+	 */
+	private String filename_;
+
+	/**
+	 * Add the assertion that every line passed to the last pattern satisfies it
+	 * @param regexPattern regular expression pattern
+	 * @return index of the assertion
+	 */
+	public int add(RegexPattern regexPattern) {
+		entries_.add(new Entry(regexPattern, -1));
+		return entries_.size() - 1;
+	}
+
+	/**
+	 * Add the assertion that the lines matching the first pattern are at least the count
+	 * @param regexPattern regular expression pattern
+	 * @param matchcount min number of the lines, 0 means at least one
+	 * @return index of the assertion
+	 */
+	public int add(RegexPattern regexPattern, int matchcount) {
+		entries_.add(new Entry(regexPattern, Math.max(0, matchcount)));
+		return entries_.size() - 1;
+	}
+
+	/**
+	 * Get number of the assertions
+	 * @return number of the assertions
+	 */
+	public int size() {
+		return entries_.size();
+	}
+
+	/**
+	 * Get pattern of the assertion
+	 * @param index index of the assertion
+	 * @return regular expression pattern
+	 */
+	public RegexPattern getPattern(int index) {
+		return entries_.get(index).pattern_;
+	}
+
+	/**
+	 * Get number of the counted lines, the lines matching the first pattern for the count assertion,
+	 * and the lines satisfying all the patterns for the other
+	 * @param index index of the assertion
+	 * @return number of the lines
+	 */
+	public long getCount(int index) {
+		return entries_.get(index).count_;
+	}
+
+	/**
+	 * Get line number of the first counted line
+	 * @param index index of the assertion
+	 * @return line number from 1, -1 if none
+	 */
+	public long getFirstLine(int index) {
+		return entries_.get(index).firstLine_;
+	}
+
+	/**
+	 * Get line number of the last counted line
+	 * @param index index of the assertion
+	 * @return line number from 1, -1 if none
+	 */
+	public long getLastLine(int index) {
+		return entries_.get(index).lastLine_;
+	}
+
+	/**
+	 * Get the lines failing the last pattern, up to 100 lines from the first.
+	 * For example, the lines matching the anti pattern.
+	 * @param index index of the assertion
+	 * @return offending lines, empty for the count assertion
+	 */
+	public List<MappedGrep.Match> getOffendingLines(int index) {
+		return entries_.get(index).offending_;
+	}
+
+	/**
+	 * Get number of the lines failing the last pattern
+	 * @param index index of the assertion
+	 * @return number of the offending lines
+	 */
+	public long getOffendingCount(int index) {
+		return entries_.get(index).offendingCount_;
+	}
+
+	/**
+	 * Check whether the assertion passed
+	 * @param index index of the assertion
+	 * @return true: passed   false: failed
+	 */
+	public boolean isPassed(int index) {
+		Entry entry = entries_.get(index);
+		if (entry.matchcount_ < 0)
+			return entry.offendingCount_ == 0L;
+		if (entry.matchcount_ > 0)
+			return entry.count_ >= entry.matchcount_;
+		return entry.count_ > 0L;
+	}
+
+	/**
+	 * Assert all the assertions passed
+	 */
+	public void check() {
+		StringBuilder msg = new StringBuilder();
+		for (int i = 0; i < entries_.size(); i ++) {
+			if (isPassed(i))
+				continue;
+			Entry entry = entries_.get(i);
+			if (msg.length() > 0)
+				msg.append('\n');
+			if (entry.matchcount_ < 0)
+				msg.append(filename_).append(" : ").append(entry.offending_.get(0).getLine());
+			else
+				msg.append("File ").append(filename_).append(" grep failed, ").append(entry.pattern_.getPattern().pattern())
+					.append(" matched ").append(entry.count_).append(" lines");
+		}
+		assert msg.length() == 0 : msg.toString();
+	}
+
+	/**
+	 * Clear the results to evaluate again
+	 * @param filename log file name to evaluate
+	 */
+	void reset(String filename) {
+		filename_ = filename;
+		for (Entry entry : entries_) {
+			entry.count_ = 0L;
+			entry.firstLine_ = -1L;
+			entry.lastLine_ = -1L;
+			entry.offending_.clear();
+			entry.offendingCount_ = 0L;
+		}
+	}
+
+	/**
+	 * Check whether the assertion counts the lines as grep(LogInfo, RegexPattern, int)
+	 * @param index index of the assertion
+	 * @return true: count assertion   false: every line assertion
+	 */
+	boolean isCount(int index) {
+		return entries_.get(index).matchcount_ >= 0;
+	}
+
+	/**
+	 * Check whether the offending lines are collected for the assertion
+	 * @param index index of the assertion
+	 * @return max number of the offending lines to keep
+	 */
+	int maxOffendingLines(int index) {
+		return entries_.get(index).matchcount_ < 0 ? MAX_OFFENDING_LINES : 0;
+	}
+
+	/**
+	 * Record the result of the assertion
+	 * @param index index of the assertion
+	 * @param count number of the counted lines
+	 * @param firstLine first line number, -1 if none
+	 * @param lastLine last line number, -1 if none
+	 * @param offending offending lines
+	 * @param offendingCount number of the offending lines
+	 */
+	void record(int index, long count, long firstLine, long lastLine, List<MappedGrep.Match> offending, long offendingCount) {
+		Entry entry = entries_.get(index);
+		entry.count_ = count;
+		entry.firstLine_ = firstLine;
+		entry.lastLine_ = lastLine;
+		entry.offending_.addAll(offending);
+		entry.offendingCount_ = offendingCount;
+	}
+
+	/**
+	 * Evaluate all the assertions with the line
+	 * @param lineNumber line number from 1
+	 * @param offset byte offset of the line, -1 if unknown
+	 * @param line line
+	 */
+	void recordLine(long lineNumber, long offset, String line) {
+		for (Entry entry : entries_) {
+			int failed = -1;
+			boolean counted;
+			if (entry.matchcount_ >= 0) {
+				counted = entry.pattern_.match(line);
+			} else {
+				failed = entry.pattern_.firstUnsatisfied(line);
+				counted = failed < 0;
+			}
+			if (counted) {
+				entry.count_ ++;
+				if (entry.firstLine_ < 0L)
+					entry.firstLine_ = lineNumber;
+				entry.lastLine_ = lineNumber;
+			} else if (entry.matchcount_ < 0 && failed == entry.pattern_.length() - 1) {
+				if (entry.offending_.size() < MAX_OFFENDING_LINES)
+					entry.offending_.add(new MappedGrep.Match(lineNumber, offset, line));
+				entry.offendingCount_ ++;
+			}
+		}
+	}
+
+	/**
+	 * Get the text representation of the report
+	 * @return text representation
+	 */
+	public String toString() {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < entries_.size(); i ++) {
+			Entry entry = entries_.get(i);
+			text.append(isPassed(i) ? "PASSED " : "FAILED ").append(entry.pattern_.getPattern().pattern())
+				.append(" count=").append(entry.count_)
+				.append(" first=").append(entry.firstLine_)
+				.append(" last=").append(entry.lastLine_);
+			if (entry.offendingCount_ > 0L)
+				text.append(" offending=").append(entry.offendingCount_);
+			text.append('\n');
+			for (MappedGrep.Match match : entry.offending_) {
+				text.append("  ").append(match).append('\n');
+			}
+		}
+		return text.toString();
+	}
+}
@@ -0,0 +1,255 @@
+package com.hpe.autoframework;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ *
+ * Growable chunked character store of received lines.
+ * Characters are stored in fixed size chunks instead of one String per line,
+ * the last line is open until endLine() is called.
+ *
+ */
+public class LineStore {
+
+	/**
+	 * Chunk size in character
+	 */
+	private static final int CHUNK_SIZE = 1024 * 8;
+
+	/**
+	 * Max number of spare chunks kept for reuse
+	 */
+	private static final int MAX_SPARE_CHUNKS = 4;
+
+	/**
+	 * Character chunks
+	 */
+	private List<char[]> chunks_ = new ArrayList<char[]>();
+
+	/**
+	 * Spare chunks for reuse
+	 */
+	private List<char[]> spare_ = new ArrayList<char[]>();
+
+	/**
+	 * Start position of data in the first chunk
+	 */
+	private int start_ = 0;
+
+	/**
+	 * Number of characters including the open line
+	 */
+	private int size_ = 0;
+
+	/**
+	 * Last chunk to append to
+	 */
+	private char[] tail_;
+
+	/**
+	 * Append position in the last chunk
+	 */
+	private int tailPos_ = CHUNK_SIZE;
+
+	/**
+	 * Length of each completed line
+	 */
+	private int[] lineLens_ = new int[64];
+
+	/**
+	 * Number of completed lines
+	 */
+	private int lineCount_ = 0;
+
+	/**
+	 * Number of characters of completed lines
+	 */
+	private int lineChars_ = 0;
+
+	/**
+	 * Append one character to the open line
+	 * @param c character to append
+	 */
+	public void append(char c) {
+		if (tailPos_ == CHUNK_SIZE)
+			addChunk();
+		tail_[tailPos_ ++] = c;
+		size_ ++;
+	}
+
+	/**
+	 * Append characters to the open line
+	 * @param buf data buffer
+	 * @param offset offset of the data in buffer
+	 * @param len length of the data
+	 */
+	public void append(char[] buf, int offset, int len) {
+		while (len > 0) {
+			if (tailPos_ == CHUNK_SIZE)
+				addChunk();
+			int size = Math.min(len, CHUNK_SIZE - tailPos_);
+			System.arraycopy(buf, offset, tail_, tailPos_, size);
+			tailPos_ += size;
+			size_ += size;
+			offset += size;
+			len -= size;
+		}
+	}
+
+	/**
+	 * Close the open line
+	 */
+	public void endLine() {
+		if (lineCount_ == lineLens_.length)
+			lineLens_ = Arrays.copyOf(lineLens_, lineLens_.length * 2);
+		lineLens_[lineCount_ ++] = size_ - lineChars_;
+		lineChars_ = size_;
+	}
+
+	/**
+	 * Get the length of the open line
+	 * @return length of the open line
+	 */
+	public int openLength() {
+		return size_ - lineChars_;
+	}
+
+	/**
+	 * Get the character in the open line
+	 * @param index index in the open line
+	 * @return character
+	 */
+	public char openCharAt(int index) {
+		int pos = start_ + lineChars_ + index;
+		return chunks_.get(pos / CHUNK_SIZE)[pos % CHUNK_SIZE];
+	}
+
+	/**
+	 * Get the number of completed lines
+	 * @return number of completed lines
+	 */
+	public int lineCount() {
+		return lineCount_;
+	}
+
+	/**
+	 * Get the number of characters of completed lines
+	 * @return number of characters
+	 */
+	public int lineChars() {
+		return lineChars_;
+	}
+
+	/**
+	 * Move the completed lines to another store, the open line remains.
+	 * @param dst store to move to
+	 */
+	public void moveLinesTo(LineStore dst) {
+		int pos = start_;
+		for (int i = 0; i < lineCount_; i ++) {
+			int len = lineLens_[i];
+			while (len > 0) {
+				int size = Math.min(len, CHUNK_SIZE - pos % CHUNK_SIZE);
+				dst.append(chunks_.get(pos / CHUNK_SIZE), pos % CHUNK_SIZE, size);
+				pos += size;
+				len -= size;
+			}
+			dst.endLine();
+		}
+		removeLines(lineCount_);
+	}
+
+	/**
+	 * Convert the completed lines to String and remove them
+	 * @param list list to add lines to
+	 */
+	public void drainTo(List<String> list) {
+		drainTo(list, lineCount_);
+	}
+
+	/**
+	 * Convert the specified number of completed lines to String and remove them
+	 * @param list list to add lines to
+	 * @param count max number of lines to drain
+	 */
+	public void drainTo(List<String> list, int count) {
+		count = Math.min(count, lineCount_);
+		int pos = start_;
+		for (int i = 0; i < count; i ++) {
+			int len = lineLens_[i];
+			int off = pos % CHUNK_SIZE;
+			if (off + len <= CHUNK_SIZE) {
+				list.add(new String(chunks_.get(pos / CHUNK_SIZE), off, len));
+				pos += len;
+			} else {
+				StringBuilder sb = new StringBuilder(len);
+				while (len > 0) {
+					int size = Math.min(len, CHUNK_SIZE - pos % CHUNK_SIZE);
+					sb.append(chunks_.get(pos / CHUNK_SIZE), pos % CHUNK_SIZE, size);
+					pos += size;
+					len -= size;
+				}
+				list.add(sb.toString());
+			}
+		}
+		removeLines(count);
+	}
+
+	/**
+	 * Remove all the data including the open line
+	 */
+	public void clear() {
+		removeLines(lineCount_);
+		if (size_ > 0) {
+			start_ += size_;
+			size_ = 0;
+			releaseChunks();
+		}
+	}
+
+	/**
+	 * Remove the first completed lines
+	 * @param count number of lines to remove
+	 */
+	private void removeLines(int count) {
+		int chars = 0;
+		for (int i = 0; i < count; i ++) {
+			chars += lineLens_[i];
+		}
+		System.arraycopy(lineLens_, count, lineLens_, 0, lineCount_ - count);
+		lineCount_ -= count;
+		lineChars_ -= chars;
+		size_ -= chars;
+		start_ += chars;
+		releaseChunks();
+	}
+
+	/**
+	 * Release the chunks which are not used any more
+	 */
+	private void releaseChunks() {
+		while (start_ >= CHUNK_SIZE || (size_ == 0 && !chunks_.isEmpty() && start_ == tailPos_ && chunks_.size() == 1)) {
+			char[] chunk = chunks_.remove(0);
+			if (spare_.size() < MAX_SPARE_CHUNKS)
+				spare_.add(chunk);
+			if (chunks_.isEmpty()) {
+				start_ = 0;
+				tail_ = null;
+				tailPos_ = CHUNK_SIZE;
+				break;
+			}
+			start_ -= CHUNK_SIZE;
+		}
+	}
+
+	/**
+	 * Add a new chunk to append to
+	 */
+	private void addChunk() {
+		tail_ = spare_.isEmpty() ? new char[CHUNK_SIZE] : spare_.remove(spare_.size() - 1);
+		chunks_.add(tail_);
+		tailPos_ = 0;
+	}
+}
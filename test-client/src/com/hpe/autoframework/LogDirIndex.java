@@ -0,0 +1,224 @@
+package com.hpe.autoframework;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+import com.jcraft.jsch.SftpATTRS;
+import com.jcraft.jsch.SftpException;
+
+/**
+ *
+ * Cached metadata index of the rotated log files in a remote directory.
+ * The entries are kept in order of modified time, so the rotation candidates
+ * newer than the checkpoint are resolved without sorting the whole listing.
+ * The directory is listed again only when its modified time changes,
+ * and the unchanged entries are kept as they are.
+ *
+ */
+public class LogDirIndex {
+
+	/**
+	 * Indexes by host, directory and rotated log file name pattern
+	 */
+	private static final Map<String, LogDirIndex> indexes_ = new HashMap<String, LogDirIndex>();
+
+	/**
+	 * Order of the entries, newest first
+	 */
+	private static final Comparator<Entry> NEWEST_FIRST = new Comparator<Entry>() {
+		public int compare(Entry e1, Entry e2) {
+			if (e1.mtime_ != e2.mtime_)
+				return e1.mtime_ > e2.mtime_ ? -1 : 1;
+			return e2.filename_.compareTo(e1.filename_);
+		}
+	};
+
+	/**
+	 * Metadata of the rotated log file
+	 */
+	public static class Entry {
+		private String filename_;
+		private long size_;
+		private int mtime_;
+
+		Entry(String filename, long size, int mtime) {
+			filename_ = filename;
+			size_ = size;
+			mtime_ = mtime;
+		}
+
+		/**
+		 * Get file name including directory
+		 * @return file name
+		 */
+		public String getFilename() {
+			return filename_;
+		}
+
+		/**
+		 * Get file size
+		 * @return file size
+		 */
+		public long getSize() {
+			return size_;
+		}
+
+		/**
+		 * Get modified time
+		 * @return modified time in second
+		 */
+		public int getMTime() {
+			return mtime_;
+		}
+	}
+
+	/**
+	 * Directory name
+	 */
+	private String dirname_;
+
+	/**
+	 * Rotated log file name pattern
+	 */
+	private Pattern pattern_;
+
+	/**
+	 * Entries by file name
+	 */
+	private Map<String, Entry> entries_ = new HashMap<String, Entry>();
+
+	/**
+	 * Entries in order of modified time, newest first
+	 */
+	private TreeSet<Entry> sorted_ = new TreeSet<Entry>(NEWEST_FIRST);
+
+	/**
+	 * Modified time of the directory when it was listed, -1 if not listed yet
+	 */
+	private int dirMTime_ = -1;
+
+	/**
+	 * Latest modified time observed until the directory was listed
+	 */
+	private int listedAfter_ = -1;
+
+	/**
+	 * Constructor
+	 * @param dirname directory name
+	 * @param pattern rotated log file name pattern
+	 */
+	private LogDirIndex(String dirname, Pattern pattern) {
+		dirname_ = dirname;
+		pattern_ = pattern;
+	}
+
+	/**
+	 * Get the index of the directory.
+	 * The index is keyed by user, host and port as the connection pool, the forwarded hosts share the host name.
+	 * @param username login user name
+	 * @param hostname remote host name
+	 * @param port remote host port
+	 * @param dirname directory name
+	 * @param pattern rotated log file name pattern
+	 * @return index of the directory
+	 */
+	public static LogDirIndex getIndex(String username, String hostname, int port, String dirname, Pattern pattern) {
+		String key = username + "@" + hostname + ":" + port + ":" + dirname + ":" + pattern.pattern();
+		synchronized (indexes_) {
+			LogDirIndex index = indexes_.get(key);
+			if (index == null) {
+				index = new LogDirIndex(dirname, pattern);
+				indexes_.put(key, index);
+			}
+			return index;
+		}
+	}
+
+	/**
+	 * Get the rotated log files modified at or after the specified time, newest first
+	 * @param channel SFTP channel to list the directory
+	 * @param exclude file name to exclude, the current log file
+	 * @param since modified time in second, -1 for all the files
+	 * @param now latest modified time observed on the remote host, -1 if unknown
+	 * @return rotated log files
+	 * @throws SftpException throw when SFTP error happens
+	 */
+	public synchronized List<Entry> getCandidates(ChannelSftp channel, String exclude, int since, int now) throws SftpException {
+		refresh(channel, now);
+		List<Entry> candidates = new ArrayList<Entry>();
+		for (Entry entry : sorted_) {
+			if (entry.mtime_ < since)
+				break;
+			if (!entry.filename_.equals(exclude))
+				candidates.add(entry);
+		}
+		return candidates;
+	}
+
+	/**
+	 * Clear the cached entries, the directory is listed on the next access
+	 */
+	public synchronized void invalidate() {
+		dirMTime_ = -1;
+	}
+
+	/**
+	 * List the directory again if it has been changed.
+	 * The cached entries are used while the directory modified time is unchanged
+	 * and older than the modified times observed before the last listing,
+	 * since a change in the same second doesn't update the directory modified time.
+	 * @param channel SFTP channel to list the directory
+	 * @param now latest modified time observed on the remote host, -1 if unknown
+	 * @throws SftpException throw when SFTP error happens
+	 */
+	@SuppressWarnings("rawtypes")
+	private void refresh(ChannelSftp channel, int now) throws SftpException {
+		SftpATTRS dirattrs = channel.stat(dirname_);
+		int dirmtime = dirattrs.getMTime();
+		if (dirMTime_ >= 0 && dirmtime == dirMTime_ && dirMTime_ < listedAfter_)
+			return;
+
+		int listedafter = Math.max(now, dirmtime);
+		Set<String> listed = new HashSet<String>();
+		for (Object obj : channel.ls(dirname_)) {
+			LsEntry dir = (LsEntry)obj;
+			String filename = dirname_ + "/" + dir.getFilename();
+			SftpATTRS attrs = dir.getAttrs();
+			if (attrs.isDir() || !pattern_.matcher(filename).matches())
+				continue;
+			listed.add(filename);
+			listedafter = Math.max(listedafter, attrs.getMTime());
+			Entry entry = entries_.get(filename);
+			if (entry != null && entry.size_ == attrs.getSize() && entry.mtime_ == attrs.getMTime())
+				continue;
+			if (entry != null)
+				sorted_.remove(entry);
+			entry = new Entry(filename, attrs.getSize(), attrs.getMTime());
+			entries_.put(filename, entry);
+			sorted_.add(entry);
+		}
+		if (listed.size() < entries_.size()) {
+			// removed files
+			List<Entry> removed = new ArrayList<Entry>();
+			for (Entry entry : entries_.values()) {
+				if (!listed.contains(entry.filename_))
+					removed.add(entry);
+			}
+			for (Entry entry : removed) {
+				entries_.remove(entry.filename_);
+				sorted_.remove(entry);
+			}
+		}
+		dirMTime_ = dirmtime;
+		listedAfter_ = listedafter;
+	}
+}
@@ -1,64 +1,194 @@
 package com.hpe.autoframework;
 
 import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.testng.TestException;
 
 /**
- * 
+ *
  * Class implements log grep.
+ * The plain local log file is searched by the memory-mapped parallel engine, MappedGrep,
+ * and the compressed one is searched on its decompressed stream.
+ * The log is decoded by LogGrepCharset configuration, UTF-8 if not configured.
  *
  */
 public class LogGrep {
-	
+
 	/**
 	 * Grep log
 	 * @param loginfo log info
 	 * @param regexPattern regular expression pattern
 	 */
 	static public void grep(LogInfo loginfo, RegexPattern regexPattern) {
+		grep(loginfo.getLocalFilename(), regexPattern);
+	}
+
+	/**
+	 * Grep local log file, the file compressed by gzip or zstd is decompressed while it's read
+	 * @param filename local log file name
+	 * @param regexPattern regular expression pattern
+	 */
+	static public void grep(String filename, RegexPattern regexPattern) {
+		if (isMappable(filename)) {
+			MappedGrep.Match failed = new MappedGrep(filename).verify(regexPattern);
+			if (failed != null)
+				regexPattern.match(filename, failed.getLine());
+			return;
+		}
+		try (InputStream in = LogStreams.openLocal(filename)) {
+			grep(filename, in, regexPattern);
+		} catch (IOException exp) {
+			throw new TestException("File " + filename + " grep failed", exp);
+		}
+	}
+
+	/**
+	 * Grep remote log file without down-loading it,
+	 * the file compressed by the log rotation is decompressed while it's read
+	 * @param sftp connected SFTP client
+	 * @param filename remote log file name
+	 * @param regexPattern regular expression pattern
+	 */
+	static public void grep(SftpClient sftp, String filename, RegexPattern regexPattern) {
+		try (InputStream in = sftp.openLogStream(filename)) {
+			grep(filename, in, regexPattern);
+		} catch (IOException exp) {
+			throw new TestException("File " + filename + " grep failed", exp);
+		}
+	}
+
+	/**
+	 * Grep log stream
+	 * @param filename log file name
+	 * @param ins decompressed log stream
+	 * @param regexPattern regular expression pattern
+	 * @throws IOException throw when I/O error happens
+	 */
+	static private void grep(String filename, InputStream ins, RegexPattern regexPattern) throws IOException {
+		String line;
+		BufferedReader in = new BufferedReader(new InputStreamReader(ins, MappedGrep.defaultCharset()));
+		line = in.readLine();
+		while (line != null) {
+			regexPattern.match(filename, line);
+
+			line = in.readLine();
+		}
+	}
+
+	/**
+	 * Grep log
+	 * @param loginfo log info
+	 * @param regexPattern regular expression pattern
+	 */
+	static public void grep(LogInfo loginfo, RegexPattern regexPattern,int matchcount) {
+		String filename = loginfo.getLocalFilename();
+		long count = 0;
+		if (isMappable(filename)) {
+			count = new MappedGrep(filename).count(regexPattern);
+		} else {
+			String line;
+			try (BufferedReader in = new BufferedReader(new InputStreamReader(LogStreams.openLocal(filename), MappedGrep.defaultCharset()))) {
+				line = in.readLine();
+				while (line != null) {
+					boolean matched =regexPattern.match(line);
+					if(matched){
+						count++;
+					}
+
+					line = in.readLine();
+				}
+			} catch (IOException exp) {
+				throw new TestException("File " + filename + " grep failed", exp);
+			}
+		}
+		if(matchcount > 0){
+			assert count >= matchcount : "File " + filename + " grep failed";
+		}else {
+			assert count > 0 : "File " + filename + " grep failed";
+		}
+	}
+
+	/**
+	 * Grep log with all the assertions of the report in one pass, and assert all of them
+	 * @param loginfo log info
+	 * @param report assertions, the results are recorded into it
+	 */
+	static public void grep(LogInfo loginfo, GrepReport report) {
+		report(loginfo, report);
+		report.check();
+	}
+
+	/**
+	 * Evaluate all the assertions of the report in one pass over the log without asserting them
+	 * @param loginfo log info
+	 * @param report assertions, the results are recorded into it
+	 */
+	static public void report(LogInfo loginfo, GrepReport report) {
 		String filename = loginfo.getLocalFilename();
-		
+		if (isMappable(filename)) {
+			new MappedGrep(filename).report(report);
+			return;
+		}
+		report.reset(filename);
 		String line;
-		try (FileReader frd = new FileReader(filename); BufferedReader in = new BufferedReader(frd)) {
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(LogStreams.openLocal(filename), MappedGrep.defaultCharset()))) {
+			long linenumber = 1L;
 			line = in.readLine();
 			while (line != null) {
-				regexPattern.match(filename, line);
-			
+				report.recordLine(linenumber ++, -1L, line);
 				line = in.readLine();
 			}
 		} catch (IOException exp) {
 			throw new TestException("File " + filename + " grep failed", exp);
 		}
 	}
-	
+
 	/**
-	 * Grep log
+	 * Find the lines of the log satisfying all the patterns in the pipeline
 	 * @param loginfo log info
 	 * @param regexPattern regular expression pattern
+	 * @return matched lines in order of the file
 	 */
-	static public void grep(LogInfo loginfo, RegexPattern regexPattern,int matchcount) {
+	static public List<String> find(LogInfo loginfo, RegexPattern regexPattern) {
 		String filename = loginfo.getLocalFilename();
-		int count = 0;
+		List<String> lines = new ArrayList<String>();
+		if (isMappable(filename)) {
+			for (MappedGrep.Match match : new MappedGrep(filename).find(regexPattern)) {
+				lines.add(match.getLine());
+			}
+			return lines;
+		}
 		String line;
-		try (FileReader frd = new FileReader(filename); BufferedReader in = new BufferedReader(frd)) {
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(LogStreams.openLocal(filename), MappedGrep.defaultCharset()))) {
 			line = in.readLine();
 			while (line != null) {
-				boolean matched =regexPattern.match(line);
-				if(matched){
-					count++;
-				}
-				
+				if (regexPattern.accepts(line))
+					lines.add(line);
 				line = in.readLine();
 			}
-			if(matchcount > 0){
-				assert count >= matchcount : "File " + filename + " grep failed";
-			}else {
-				assert count > 0 : "File " + filename + " grep failed";
-			}
-			
+		} catch (IOException exp) {
+			throw new TestException("File " + filename + " grep failed", exp);
+		}
+		return lines;
+	}
+
+	/**
+	 * Check whether the local log file can be searched by the memory-mapped engine
+	 * @param filename local log file name
+	 * @return true: plain file in the supported charset   false: compressed or not supported
+	 */
+	static private boolean isMappable(String filename) {
+		Charset charset = MappedGrep.defaultCharset();
+		if (!MappedGrep.isSupported(charset))
+			return false;
+		try {
+			return LogStreams.compressionOfLocal(filename) == LogStreams.NONE;
 		} catch (IOException exp) {
 			throw new TestException("File " + filename + " grep failed", exp);
 		}
@@ -0,0 +1,650 @@
+package com.hpe.autoframework;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.testng.TestException;
+
+/**
+ *
+ * Index of the captured local log file for repeated queries.
+ * It's updated incrementally by SftpClient.getLogFile() when it's set to LogInfo,
+ * and saved by save() next to the local log file with the suffix .idx.
+ * The index includes the offset of each line, the sparse timestamp to line index,
+ * the inverted index of the configured fields and optionally the trigram index by block of lines,
+ * so the queries read only the lines they need instead of scanning the whole file.
+ *
+ */
+public class LogIndex {
+
+	/**
+	 * Index file suffix
+	 */
+	private static final String SUFFIX = ".idx";
+
+	/**
+	 * Index file format version
+	 */
+	private static final int VERSION = 1;
+
+	/**
+	 * Default number of lines in a block of the trigram index
+	 */
+	private static final int DEFAULT_BLOCK_LINES = 1024;
+
+	/**
+	 * Reading buffer size
+	 */
+	private static final int BUF_SIZE = 1024 * 64;
+
+	/**
+	 * Growable array of long
+	 */
+	private static class LongArray {
+		long[] data_ = new long[1024];
+		int size_ = 0;
+
+		void add(long value) {
+			if (size_ == data_.length)
+				data_ = Arrays.copyOf(data_, size_ * 2);
+			data_[size_ ++] = value;
+		}
+	}
+
+	/**
+	 * Growable array of int
+	 */
+	private static class IntArray {
+		int[] data_ = new int[4];
+		int size_ = 0;
+
+		void add(int value) {
+			if (size_ == data_.length)
+				data_ = Arrays.copyOf(data_, size_ * 2);
+			data_[size_ ++] = value;
+		}
+	}
+
+	/**
+	 * Log information of the indexed log
+	 */
+	private LogInfo loginfo_;
+
+	/**
+	 * Character set of the log
+	 */
+	private Charset charset_ = MappedGrep.defaultCharset();
+
+	/**
+	 * Field patterns by field name, the group 1 is the value
+	 */
+	private Map<String, Pattern> fields_ = new LinkedHashMap<String, Pattern>();
+
+	/**
+	 * Timestamp pattern, the group 1 is the timestamp text
+	 */
+	private Pattern timestampPattern_;
+
+	/**
+	 * Timestamp format
+	 */
+	private SimpleDateFormat timestampFormat_;
+
+	/**
+	 * Trigram index enable flag
+	 */
+	private boolean ngram_ = false;
+
+	/**
+	 * Number of lines in a block of the trigram index
+	 */
+	private int blockLines_ = DEFAULT_BLOCK_LINES;
+
+	/**
+	 * Offset of each line and the end of the last line
+	 */
+	private LongArray offsets_ = new LongArray();
+
+	/**
+	 * Timestamps in millisecond where the timestamp increases
+	 */
+	private LongArray times_ = new LongArray();
+
+	/**
+	 * Line numbers of the timestamps
+	 */
+	private LongArray timeLines_ = new LongArray();
+
+	/**
+	 * Line numbers by field name and value
+	 */
+	private Map<String, Map<String, IntArray>> postings_ = new HashMap<String, Map<String, IntArray>>();
+
+	/**
+	 * Blocks including the trigram
+	 */
+	private Map<Long, BitSet> trigrams_ = new HashMap<Long, BitSet>();
+
+	/**
+	 * Whether the index is changed since it was saved or loaded
+	 */
+	private boolean dirty_ = false;
+
+	/**
+	 * Constructor, set it to LogInfo by setIndex() to update the index on each capture
+	 * @param loginfo log information of the indexed log
+	 */
+	public LogIndex(LogInfo loginfo) {
+		loginfo_ = loginfo;
+		offsets_.add(0L);
+	}
+
+	/**
+	 * Add the field to the inverted index
+	 * @param name field name
+	 * @param regex regular expression to find the field, the group 1 is the value
+	 */
+	public synchronized void addField(String name, String regex) {
+		fields_.put(name, Pattern.compile(regex));
+		postings_.put(name, new HashMap<String, IntArray>());
+	}
+
+	/**
+	 * Set timestamp of the line
+	 * @param regex regular expression to find the timestamp, the group 1 is the timestamp text
+	 * @param format timestamp format of SimpleDateFormat
+	 */
+	public synchronized void setTimestamp(String regex, String format) {
+		timestampPattern_ = Pattern.compile(regex);
+		timestampFormat_ = new SimpleDateFormat(format);
+	}
+
+	/**
+	 * Enable the trigram index for grep
+	 * @param ngram true: enable   false: disable(default)
+	 */
+	public synchronized void setNgramIndex(boolean ngram) {
+		ngram_ = ngram;
+	}
+
+	/**
+	 * Set number of lines in a block of the trigram index, it must be set before the first update
+	 * @param blockLines number of lines
+	 */
+	public synchronized void setBlockLines(int blockLines) {
+		blockLines_ = blockLines;
+	}
+
+	/**
+	 * Get number of the indexed lines
+	 * @return number of lines
+	 */
+	public synchronized int getLineCount() {
+		return offsets_.size_ - 1;
+	}
+
+	/**
+	 * Index the lines appended to the local log file since the last update.
+	 * The line ends at LF, CR or CR LF, the last line without line end is indexed in the next update.
+	 * The index file is not written, call save() to keep the index.
+	 */
+	public synchronized void update() {
+		Path path = FileSystems.getDefault().getPath(loginfo_.getLocalFilename());
+		try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+			long pos = offsets_.data_[offsets_.size_ - 1];
+			if (in.size() < pos) {
+				// the local log file was recreated
+				clear();
+				pos = 0L;
+			}
+			ByteBuffer bb = ByteBuffer.allocate(BUF_SIZE);
+			byte[] partial = new byte[0];
+			long linestart = pos;
+			// the line ends at LF, CR or CR LF as MappedGrep, CR is kept until the next byte is known
+			boolean cr = false;
+			for (;;) {
+				bb.clear();
+				int num = in.read(bb, pos);
+				if (num <= 0)
+					break;
+				byte[] buf = bb.array();
+				int start = 0;
+				for (int i = 0; i < num; i ++) {
+					byte b = buf[i];
+					if (cr) {
+						cr = false;
+						byte[] line = concat(partial, buf, start, i);
+						partial = new byte[0];
+						// CR LF is one line end, the bare CR ends the line before this byte
+						long next = linestart + line.length + (b == '\n' ? 1 : 0);
+						addLine(line, next);
+						linestart = next;
+						start = b == '\n' ? i + 1 : i;
+						if (b == '\n')
+							continue;
+					}
+					if (b == '\r') {
+						cr = true;
+					} else if (b == '\n') {
+						byte[] line = concat(partial, buf, start, i);
+						partial = new byte[0];
+						long next = linestart + line.length + 1;
+						addLine(line, next);
+						linestart = next;
+						start = i + 1;
+					}
+				}
+				if (start < num)
+					partial = concat(partial, buf, start, num);
+				pos += num;
+			}
+		} catch (IOException exp) {
+			throw new TestException("File " + loginfo_.getLocalFilename() + " index failed", exp);
+		}
+	}
+
+	/**
+	 * Concatenate the partial line and the bytes of the buffer
+	 * @param partial partial line
+	 * @param buf buffer
+	 * @param start start index in the buffer, inclusive
+	 * @param end end index in the buffer, exclusive
+	 * @return concatenated bytes
+	 */
+	private static byte[] concat(byte[] partial, byte[] buf, int start, int end) {
+		byte[] bytes = Arrays.copyOf(partial, partial.length + end - start);
+		System.arraycopy(buf, start, bytes, partial.length, end - start);
+		return bytes;
+	}
+
+	/**
+	 * Index the line
+	 * @param bytes line without line feed, it may end with CR
+	 * @param next offset of the next line
+	 */
+	private void addLine(byte[] bytes, long next) {
+		int linenumber = offsets_.size_ - 1;
+		offsets_.add(next);
+		dirty_ = true;
+		if (fields_.isEmpty() && timestampPattern_ == null && !ngram_)
+			return;
+		int len = bytes.length;
+		if (len > 0 && bytes[len - 1] == '\r')
+			len --;
+		String line = new String(bytes, 0, len, charset_);
+		for (Map.Entry<String, Pattern> field : fields_.entrySet()) {
+			Matcher matcher = field.getValue().matcher(line);
+			while (matcher.find()) {
+				Map<String, IntArray> values = postings_.get(field.getKey());
+				IntArray lines = values.get(matcher.group(1));
+				if (lines == null) {
+					lines = new IntArray();
+					values.put(matcher.group(1), lines);
+				}
+				if (lines.size_ == 0 || lines.data_[lines.size_ - 1] != linenumber)
+					lines.add(linenumber);
+			}
+		}
+		if (timestampPattern_ != null) {
+			Matcher matcher = timestampPattern_.matcher(line);
+			if (matcher.find()) {
+				try {
+					long time = timestampFormat_.parse(matcher.group(1)).getTime();
+					if (times_.size_ == 0 || time > times_.data_[times_.size_ - 1]) {
+						times_.add(time);
+						timeLines_.add(linenumber);
+					}
+				} catch (ParseException exp) {
+					// not a timestamp
+				}
+			}
+		}
+		if (ngram_) {
+			int block = linenumber / blockLines_;
+			for (int i = 0; i + 3 <= line.length(); i ++) {
+				Long key = trigram(line, i);
+				BitSet blocks = trigrams_.get(key);
+				if (blocks == null) {
+					blocks = new BitSet();
+					trigrams_.put(key, blocks);
+				}
+				blocks.set(block);
+			}
+		}
+	}
+
+	/**
+	 * Get the trigram key
+	 * @param text text
+	 * @param index index of the trigram
+	 * @return trigram key
+	 */
+	private static Long trigram(CharSequence text, int index) {
+		return ((long)text.charAt(index) << 32) | ((long)text.charAt(index + 1) << 16) | text.charAt(index + 2);
+	}
+
+	/**
+	 * Clear the index
+	 */
+	private void clear() {
+		offsets_ = new LongArray();
+		offsets_.add(0L);
+		times_ = new LongArray();
+		timeLines_ = new LongArray();
+		for (Map<String, IntArray> values : postings_.values()) {
+			values.clear();
+		}
+		trigrams_.clear();
+		dirty_ = true;
+	}
+
+	/**
+	 * Get the line
+	 * @param linenumber line number from 1
+	 * @return line
+	 */
+	public synchronized String getLine(int linenumber) {
+		return readLines(linenumber - 1, linenumber).get(0);
+	}
+
+	/**
+	 * Get the lines having the field value
+	 * @param name field name
+	 * @param value field value
+	 * @return lines in order of the log
+	 */
+	public synchronized List<String> lookup(String name, String value) {
+		Map<String, IntArray> values = postings_.get(name);
+		assert values != null : "Field " + name + " is not indexed";
+		IntArray lines = values.get(value);
+		List<String> result = new ArrayList<String>();
+		if (lines == null)
+			return result;
+		for (int i = 0; i < lines.size_; i ++) {
+			result.addAll(readLines(lines.data_[i], lines.data_[i] + 1));
+		}
+		return result;
+	}
+
+	/**
+	 * Get the lines in the time range
+	 * @param from start time, inclusive
+	 * @param to end time, exclusive
+	 * @return lines in order of the log, including the lines without timestamp between them
+	 */
+	public synchronized List<String> between(Date from, Date to) {
+		assert timestampPattern_ != null : "Timestamp is not indexed";
+		int first = timeIndex(from.getTime());
+		int last = timeIndex(to.getTime());
+		int firstline = first < times_.size_ ? (int)timeLines_.data_[first] : getLineCount();
+		int lastline = last < times_.size_ ? (int)timeLines_.data_[last] : getLineCount();
+		return readLines(firstline, lastline);
+	}
+
+	/**
+	 * Find the first timestamp index at or after the time
+	 * @param time time in millisecond
+	 * @return timestamp index
+	 */
+	private int timeIndex(long time) {
+		int index = Arrays.binarySearch(times_.data_, 0, times_.size_, time);
+		return index >= 0 ? index : -index - 1;
+	}
+
+	/**
+	 * Find the lines satisfying all the patterns in the pipeline.
+	 * With the trigram index, only the blocks including the literal text of the first pattern are read,
+	 * and the lines not indexed yet at the end of the file are scanned.
+	 * @param regexPattern regular expression pattern
+	 * @return lines in order of the log
+	 */
+	public synchronized List<String> grep(RegexPattern regexPattern) {
+		String literal = regexPattern.getLiteral();
+		if (!ngram_ || literal == null || literal.length() < 3 || !regexPattern.isNormalPattern()) {
+			List<String> result = new ArrayList<String>();
+			for (MappedGrep.Match match : new MappedGrep(loginfo_.getLocalFilename()).find(regexPattern)) {
+				result.add(match.getLine());
+			}
+			return result;
+		}
+
+		BitSet candidates = null;
+		for (int i = 0; i + 3 <= literal.length(); i ++) {
+			BitSet blocks = trigrams_.get(trigram(literal, i));
+			if (blocks == null) {
+				candidates = new BitSet();
+				break;
+			}
+			if (candidates == null) {
+				candidates = (BitSet)blocks.clone();
+			} else {
+				candidates.and(blocks);
+			}
+		}
+		List<String> result = new ArrayList<String>();
+		for (int block = candidates.nextSetBit(0); block >= 0; block = candidates.nextSetBit(block + 1)) {
+			int from = block * blockLines_;
+			for (String line : readLines(from, Math.min(from + blockLines_, getLineCount()))) {
+				if (regexPattern.accepts(line))
+					result.add(line);
+			}
+		}
+		grepTail(regexPattern, result);
+		return result;
+	}
+
+	/**
+	 * Find the lines not indexed yet, appended after the last update or without line end
+	 * @param regexPattern regular expression pattern
+	 * @param result found lines are added to it
+	 */
+	private void grepTail(RegexPattern regexPattern, List<String> result) {
+		Path path = FileSystems.getDefault().getPath(loginfo_.getLocalFilename());
+		try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+			long start = offsets_.data_[offsets_.size_ - 1];
+			if (in.size() <= start)
+				return;
+			in.position(start);
+			BufferedReader reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(in), charset_), BUF_SIZE);
+			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+				if (regexPattern.accepts(line))
+					result.add(line);
+			}
+		} catch (IOException exp) {
+			throw new TestException("File " + loginfo_.getLocalFilename() + " read failed", exp);
+		}
+	}
+
+	/**
+	 * Read the lines from the local log file
+	 * @param from first line index from 0, inclusive
+	 * @param to last line index, exclusive
+	 * @return lines
+	 */
+	private List<String> readLines(int from, int to) {
+		List<String> lines = new ArrayList<String>();
+		if (from >= to)
+			return lines;
+		long start = offsets_.data_[from];
+		long end = offsets_.data_[to];
+		Path path = FileSystems.getDefault().getPath(loginfo_.getLocalFilename());
+		try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+			// the range is read in chunks, a line longer than the chunk is read as a whole
+			ByteBuffer bb = ByteBuffer.allocate((int)Math.min(end - start, BUF_SIZE));
+			long chunkstart = start;
+			int chunklen = 0;
+			for (int i = from; i < to; i ++) {
+				long linestart = offsets_.data_[i];
+				int len = (int)(offsets_.data_[i + 1] - linestart) - 1;
+				if (linestart + len > chunkstart + chunklen) {
+					if (len > bb.capacity())
+						bb = ByteBuffer.allocate(len);
+					bb.clear();
+					bb.limit((int)Math.min(end - linestart, bb.capacity()));
+					while (bb.hasRemaining()) {
+						if (in.read(bb, linestart + bb.position()) < 0)
+							break;
+					}
+					chunkstart = linestart;
+					chunklen = bb.position();
+				}
+				byte[] buf = bb.array();
+				int off = (int)(linestart - chunkstart);
+				// the file was truncated after it's indexed
+				len = Math.min(len, chunklen - off);
+				if (len > 0 && buf[off + len - 1] == '\r')
+					len --;
+				lines.add(new String(buf, off, Math.max(len, 0), charset_));
+			}
+		} catch (IOException exp) {
+			throw new TestException("File " + loginfo_.getLocalFilename() + " read failed", exp);
+		}
+		return lines;
+	}
+
+	/**
+	 * Save the index to the index file if it's changed since it was saved or loaded,
+	 * to load it instead of indexing the log again
+	 */
+	public synchronized void save() {
+		if (!dirty_)
+			return;
+		File file = new File(loginfo_.getLocalFilename() + SUFFIX);
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUF_SIZE))) {
+			out.writeInt(VERSION);
+			out.writeInt(blockLines_);
+			writeArray(out, offsets_);
+			writeArray(out, times_);
+			writeArray(out, timeLines_);
+			out.writeInt(postings_.size());
+			for (Map.Entry<String, Map<String, IntArray>> field : postings_.entrySet()) {
+				out.writeUTF(field.getKey());
+				out.writeInt(field.getValue().size());
+				for (Map.Entry<String, IntArray> value : field.getValue().entrySet()) {
+					out.writeUTF(value.getKey());
+					out.writeInt(value.getValue().size_);
+					for (int i = 0; i < value.getValue().size_; i ++) {
+						out.writeInt(value.getValue().data_[i]);
+					}
+				}
+			}
+			out.writeInt(trigrams_.size());
+			for (Map.Entry<Long, BitSet> trigram : trigrams_.entrySet()) {
+				out.writeLong(trigram.getKey());
+				long[] words = trigram.getValue().toLongArray();
+				out.writeInt(words.length);
+				for (long word : words) {
+					out.writeLong(word);
+				}
+			}
+		} catch (IOException exp) {
+			throw new TestException("File " + file + " save failed", exp);
+		}
+		dirty_ = false;
+	}
+
+	/**
+	 * Load the index saved by the update of the same log, instead of indexing the log again.
+	 * The fields, timestamp and trigram settings must be the same as when it was saved.
+	 * @return true: loaded   false: no index file or it doesn't match the local log file
+	 */
+	public synchronized boolean load() {
+		File file = new File(loginfo_.getLocalFilename() + SUFFIX);
+		if (!file.exists())
+			return false;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUF_SIZE))) {
+			if (in.readInt() != VERSION)
+				return false;
+			blockLines_ = in.readInt();
+			LongArray offsets = readArray(in);
+			if (offsets.data_[offsets.size_ - 1] > new File(loginfo_.getLocalFilename()).length())
+				return false;
+			offsets_ = offsets;
+			times_ = readArray(in);
+			timeLines_ = readArray(in);
+			int fields = in.readInt();
+			for (int f = 0; f < fields; f ++) {
+				Map<String, IntArray> values = new HashMap<String, IntArray>();
+				postings_.put(in.readUTF(), values);
+				int count = in.readInt();
+				for (int v = 0; v < count; v ++) {
+					String value = in.readUTF();
+					IntArray lines = new IntArray();
+					int size = in.readInt();
+					for (int i = 0; i < size; i ++) {
+						lines.add(in.readInt());
+					}
+					values.put(value, lines);
+				}
+			}
+			int trigrams = in.readInt();
+			for (int t = 0; t < trigrams; t ++) {
+				long key = in.readLong();
+				long[] words = new long[in.readInt()];
+				for (int i = 0; i < words.length; i ++) {
+					words[i] = in.readLong();
+				}
+				trigrams_.put(key, BitSet.valueOf(words));
+			}
+			dirty_ = false;
+			return true;
+		} catch (IOException exp) {
+			throw new TestException("File " + file + " load failed", exp);
+		}
+	}
+
+	/**
+	 * Write the array
+	 * @param out output stream
+	 * @param array array to write
+	 * @throws IOException throw when I/O error happens
+	 */
+	private static void writeArray(DataOutputStream out, LongArray array) throws IOException {
+		out.writeInt(array.size_);
+		for (int i = 0; i < array.size_; i ++) {
+			out.writeLong(array.data_[i]);
+		}
+	}
+
+	/**
+	 * Read the array
+	 * @param in input stream
+	 * @return array read
+	 * @throws IOException throw when I/O error happens
+	 */
+	private static LongArray readArray(DataInputStream in) throws IOException {
+		LongArray array = new LongArray();
+		int size = in.readInt();
+		for (int i = 0; i < size; i ++) {
+			array.add(in.readLong());
+		}
+		return array;
+	}
+}
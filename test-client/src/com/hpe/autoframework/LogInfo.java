@@ -1,14 +1,22 @@
 package com.hpe.autoframework;
 
+import java.util.Arrays;
 import java.util.regex.Pattern;
+import java.util.zip.CRC32;
 
 /**
  * 
  * Log information includes log file name, finger-print, file size, etc.
+ * It's also the capture checkpoint, the offset and finger-print advance as the log is captured.
  *
  */
 public class LogInfo {
 	
+	/**
+	 * Size of the log file head covered by the head checksum
+	 */
+	public static final int HEAD_SIZE = 1024;
+	
 	/**
 	 * Log file size
 	 */
@@ -39,6 +47,31 @@ public class LogInfo {
 	 */
 	protected String localFilename_;
 	
+	/**
+	 * Checksum of the log file head
+	 */
+	protected CRC32 headChecksum_ = new CRC32();
+	
+	/**
+	 * Size of the log file head covered by the checksum
+	 */
+	protected int headSize_ = 0;
+	
+	/**
+	 * Size of the local capture file, -1 if the capture is not started
+	 */
+	protected long localSize_ = -1L;
+	
+	/**
+	 * Modified time in second of the log file holding the checkpoint, -1 if unknown
+	 */
+	protected int modifiedTime_ = -1;
+	
+	/**
+	 * Index of the local capture file updated on each capture, null if not indexed
+	 */
+	protected LogIndex index_;
+	
 	/**
 	 * Constructor with default rotated log file name pattern (logfilename.*)
 	 * @param filename log file name
@@ -157,4 +190,132 @@ public class LogInfo {
 	public void setLocalFilename(String localFilename) {
 		localFilename_ = localFilename;
 	}
+
+	/**
+	 * Get checksum of the log file head
+	 * @return CRC32 checksum of the first getHeadSize() bytes
+	 */
+	public long getHeadChecksum() {
+		return headChecksum_.getValue();
+	}
+
+	/**
+	 * Get size of the log file head covered by the checksum
+	 * @return head size
+	 */
+	public int getHeadSize() {
+		return headSize_;
+	}
+
+	/**
+	 * Get size of the local capture file
+	 * @return size of the local capture file, -1 if the capture is not started
+	 */
+	public long getLocalSize() {
+		return localSize_;
+	}
+
+	/**
+	 * Set size of the local capture file
+	 * @param localSize size of the local capture file
+	 */
+	public void setLocalSize(long localSize) {
+		localSize_ = localSize;
+	}
+
+	/**
+	 * Get modified time of the log file holding the checkpoint.
+	 * The rotated log files modified before this can't hold the checkpoint.
+	 * @return modified time in second, -1 if unknown
+	 */
+	public int getModifiedTime() {
+		return modifiedTime_;
+	}
+
+	/**
+	 * Set modified time of the log file holding the checkpoint
+	 * @param modifiedTime modified time in second
+	 */
+	public void setModifiedTime(int modifiedTime) {
+		modifiedTime_ = modifiedTime;
+	}
+
+	/**
+	 * Get index of the local capture file
+	 * @return index, null if not indexed
+	 */
+	public LogIndex getIndex() {
+		return index_;
+	}
+
+	/**
+	 * Set index of the local capture file, it's updated by SftpClient.getLogFile()
+	 * @param index index of the local capture file
+	 */
+	public void setIndex(LogIndex index) {
+		index_ = index;
+	}
+
+	/**
+	 * Reset the checkpoint to the beginning of a new log file
+	 */
+	public void resetCheckpoint() {
+		size_ = 0L;
+		fingerPrintOffset_ = 0L;
+		fingerPrint_ = new byte[0];
+		headChecksum_.reset();
+		headSize_ = 0;
+	}
+
+	/**
+	 * Advance the checkpoint by the data read from the log file at the current size.
+	 * The finger-print keeps the last bytes and the head checksum covers the first HEAD_SIZE bytes.
+	 * @param buf data buffer
+	 * @param offset offset of the data in buffer
+	 * @param len length of the data
+	 * @param fingerPrintSize max finger-print size
+	 */
+	public void advance(byte[] buf, int offset, int len, int fingerPrintSize) {
+		if (headSize_ < HEAD_SIZE && size_ == headSize_) {
+			int headlen = Math.min(len, HEAD_SIZE - headSize_);
+			headChecksum_.update(buf, offset, headlen);
+			headSize_ += headlen;
+		}
+		
+		byte[] fingerprint = fingerPrint_ == null ? new byte[0] : fingerPrint_;
+		int fplen = (int)Math.min(fingerPrintSize, (long)fingerprint.length + len);
+		byte[] newfingerprint = new byte[fplen];
+		int fromdata = Math.min(len, fplen);
+		int fromold = fplen - fromdata;
+		System.arraycopy(fingerprint, fingerprint.length - fromold, newfingerprint, 0, fromold);
+		System.arraycopy(buf, offset + len - fromdata, newfingerprint, fromold, fromdata);
+		fingerPrint_ = newfingerprint;
+		size_ += len;
+		fingerPrintOffset_ = size_ - fplen;
+	}
+
+	/**
+	 * Check whether the head data matches the head checksum
+	 * @param head first bytes of the log file, at least getHeadSize() bytes
+	 * @return true: matches   false: doesn't match
+	 */
+	public boolean matchesHead(byte[] head) {
+		if (head.length < headSize_)
+			return false;
+		CRC32 crc = new CRC32();
+		crc.update(head, 0, headSize_);
+		return crc.getValue() == headChecksum_.getValue();
+	}
+
+	/**
+	 * Check whether the data matches the finger-print
+	 * @param data data read from the finger-print offset, at least the finger-print size
+	 * @return true: matches   false: doesn't match
+	 */
+	public boolean matchesFingerPrint(byte[] data) {
+		byte[] fingerprint = fingerPrint_ == null ? new byte[0] : fingerPrint_;
+		if (data.length < fingerprint.length)
+			return false;
+		return Arrays.equals(fingerprint, Arrays.copyOf(data, fingerprint.length));
+	}
 }
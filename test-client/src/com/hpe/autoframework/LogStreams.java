@@ -0,0 +1,217 @@
+package com.hpe.autoframework;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ *
+ * Streams of the log files which may be compressed by the log rotation.
+ * The compressed log files are decompressed on the fly while they are read,
+ * nothing is decompressed onto disk.
+ *
+ */
+public class LogStreams {
+
+	/**
+	 * Not compressed
+	 */
+	public static final int NONE = 0;
+
+	/**
+	 * Compressed by gzip
+	 */
+	public static final int GZIP = 1;
+
+	/**
+	 * Compressed by zstd
+	 */
+	public static final int ZSTD = 2;
+
+	/**
+	 * Decompression buffer size
+	 */
+	private static final int BUF_SIZE = 1024 * 64;
+
+	/**
+	 * Get the compression of the log file by the file name suffix
+	 * @param filename log file name
+	 * @return NONE, GZIP or ZSTD
+	 */
+	public static int compressionOf(String filename) {
+		if (filename.endsWith(".gz"))
+			return GZIP;
+		if (filename.endsWith(".zst") || filename.endsWith(".zstd"))
+			return ZSTD;
+		return NONE;
+	}
+
+	/**
+	 * Get the compression of the data by its magic number
+	 * @param head first bytes of the data
+	 * @param len length of the bytes
+	 * @return NONE, GZIP or ZSTD
+	 */
+	public static int compressionOf(byte[] head, int len) {
+		if (len >= 2 && (head[0] & 0xff) == 0x1f && (head[1] & 0xff) == 0x8b)
+			return GZIP;
+		if (len >= 4 && (head[0] & 0xff) == 0x28 && (head[1] & 0xff) == 0xb5 && (head[2] & 0xff) == 0x2f && (head[3] & 0xff) == 0xfd)
+			return ZSTD;
+		return NONE;
+	}
+
+	/**
+	 * Get the compression of the local file by its magic number
+	 * @param filename local file name
+	 * @return NONE, GZIP or ZSTD
+	 * @throws IOException throw when I/O error happens
+	 */
+	public static int compressionOfLocal(String filename) throws IOException {
+		try (InputStream in = new FileInputStream(filename)) {
+			byte[] head = readFully(in, 4);
+			return compressionOf(head, head.length);
+		}
+	}
+
+	/**
+	 * Open the local log file, the compressed file is decompressed while it's read.
+	 * zstd is decompressed by the local zstd command since no decoder is available in Java runtime.
+	 * @param filename local log file name
+	 * @return decompressed stream
+	 * @throws IOException throw when I/O error happens
+	 */
+	public static InputStream openLocal(String filename) throws IOException {
+		BufferedInputStream in = new BufferedInputStream(new FileInputStream(filename), BUF_SIZE);
+		try {
+			byte[] head = new byte[4];
+			in.mark(head.length);
+			int len = 0;
+			while (len < head.length) {
+				int num = in.read(head, len, head.length - len);
+				if (num < 0)
+					break;
+				len += num;
+			}
+			in.reset();
+			switch (compressionOf(head, len)) {
+			case GZIP:
+				return new GZIPInputStream(in, BUF_SIZE);
+			case ZSTD:
+				in.close();
+				return exec(new ProcessBuilder("zstd", "-dcq", "--", filename));
+			default:
+				return in;
+			}
+		} catch (IOException exp) {
+			in.close();
+			throw exp;
+		}
+	}
+
+	/**
+	 * Decompress the stream
+	 * @param in compressed stream
+	 * @param compression GZIP or NONE
+	 * @return decompressed stream
+	 * @throws IOException throw when I/O error happens
+	 */
+	public static InputStream decompress(InputStream in, int compression) throws IOException {
+		assert compression != ZSTD : "zstd stream can't be decompressed in process";
+		if (compression == GZIP)
+			return new GZIPInputStream(in, BUF_SIZE);
+		return in;
+	}
+
+	/**
+	 * Skip the bytes of the stream
+	 * @param in stream
+	 * @param len number of bytes to skip
+	 * @return number of bytes skipped, less than len if the stream ends
+	 * @throws IOException throw when I/O error happens
+	 */
+	public static long skipFully(InputStream in, long len) throws IOException {
+		byte[] buf = null;
+		long skipped = 0L;
+		while (skipped < len) {
+			long num = in.skip(len - skipped);
+			if (num <= 0L) {
+				// skip() may return 0 before the end, confirm by read()
+				if (buf == null)
+					buf = new byte[(int)Math.min(BUF_SIZE, len - skipped)];
+				num = in.read(buf, 0, (int)Math.min(buf.length, len - skipped));
+				if (num < 0)
+					break;
+			}
+			skipped += num;
+		}
+		return skipped;
+	}
+
+	/**
+	 * Read the bytes of the stream
+	 * @param in stream
+	 * @param len number of bytes to read
+	 * @return data read, shorter than len if the stream ends
+	 * @throws IOException throw when I/O error happens
+	 */
+	public static byte[] readFully(InputStream in, int len) throws IOException {
+		byte[] buf = new byte[len];
+		int index = 0;
+		while (index < len) {
+			int num = in.read(buf, index, len - index);
+			if (num < 0)
+				return Arrays.copyOf(buf, index);
+			index += num;
+		}
+		return buf;
+	}
+
+	/**
+	 * Start the process and get its standard output
+	 * @param builder process to start
+	 * @return standard output, closing it destroys the process
+	 * @throws IOException throw when I/O error happens
+	 */
+	private static InputStream exec(ProcessBuilder builder) throws IOException {
+		builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+		final Process process = builder.start();
+		process.getOutputStream().close();
+		return new FilterInputStream(new BufferedInputStream(process.getInputStream(), BUF_SIZE)) {
+			public int read(byte[] b, int off, int len) throws IOException {
+				int num = super.read(b, off, len);
+				if (num < 0)
+					checkExit();
+				return num;
+			}
+
+			public int read() throws IOException {
+				int num = super.read();
+				if (num < 0)
+					checkExit();
+				return num;
+			}
+
+			private void checkExit() throws IOException {
+				try {
+					int exitcode = process.waitFor();
+					if (exitcode != 0)
+						throw new IOException("Decompression failed with exit code " + exitcode);
+				} catch (InterruptedException exp) {
+					throw new IOException("Decompression interrupted", exp);
+				}
+			}
+
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					process.destroy();
+				}
+			}
+		};
+	}
+}
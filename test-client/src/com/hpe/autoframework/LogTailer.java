@@ -0,0 +1,565 @@
+package com.hpe.autoframework;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.testng.TestException;
+
+/**
+ *
+ * Background tailer of the remote log file.
+ * It follows the log file by polling the size with SftpClient.getLogFile(),
+ * so the captured lines are spilled to the local log file of LogInfo.
+ * The latest lines are kept in a bounded in-memory ring and the waiting patterns
+ * are matched against each line as it arrives.
+ * The SftpClient is used only by the tailer thread until stop() is called.
+ *
+ */
+public class LogTailer {
+
+	/**
+	 * Default polling interval in millisecond
+	 */
+	private static final long DEFAULT_INTERVAL = 200L;
+
+	/**
+	 * Default number of lines kept in memory
+	 */
+	private static final int DEFAULT_RING_SIZE = 10000;
+
+	/**
+	 * Local file reading buffer size
+	 */
+	private static final int BUF_SIZE = 1024 * 64;
+
+	/**
+	 * Line kept in memory
+	 */
+	private class Line {
+		String text_;
+		long number_;
+		long offset_;
+
+		Line(String text, long number, long offset) {
+			text_ = text;
+			number_ = number;
+			offset_ = offset;
+		}
+	}
+
+	/**
+	 * Pattern waiting for the line
+	 */
+	private class Waiter {
+		RegexPattern pattern_;
+		String line_;
+
+		Waiter(RegexPattern pattern) {
+			pattern_ = pattern;
+		}
+	}
+
+	/**
+	 * Splitter of the local file data into lines, it keeps the byte offset of each line
+	 */
+	private class LineSplitter {
+		ByteArrayOutputStream partial_ = new ByteArrayOutputStream();
+		long lineOffset_;
+
+		LineSplitter(long offset) {
+			lineOffset_ = offset;
+		}
+
+		/**
+		 * Split the data into lines
+		 * @param buf data buffer
+		 * @param len data length
+		 * @param lines list to add the lines to
+		 */
+		void feed(byte[] buf, int len, List<Line> lines) {
+			int start = 0;
+			for (int i = 0; i < len; i ++) {
+				if (buf[i] == '\n') {
+					partial_.write(buf, start, i - start);
+					byte[] data = partial_.toByteArray();
+					int linelen = data.length;
+					if (linelen > 0 && data[linelen - 1] == '\r')
+						linelen --;
+					lines.add(new Line(new String(data, 0, linelen, charset_), 0L, lineOffset_));
+					lineOffset_ += data.length + 1;
+					partial_.reset();
+					start = i + 1;
+				}
+			}
+			partial_.write(buf, start, len - start);
+		}
+	}
+
+	/**
+	 * SFTP client used by the tailer thread
+	 */
+	private SftpClient sftp_;
+
+	/**
+	 * Log information and capture checkpoint
+	 */
+	private LogInfo loginfo_;
+
+	/**
+	 * Local log file
+	 */
+	private Path localPath_;
+
+	/**
+	 * Character set of the log file
+	 */
+	private Charset charset_ = StandardCharsets.UTF_8;
+
+	/**
+	 * Polling interval in nanosecond
+	 */
+	private long interval_;
+
+	/**
+	 * Max number of lines kept in memory
+	 */
+	private int ringSize_;
+
+	/**
+	 * Latest lines, guarded by lock_
+	 */
+	private Deque<Line> ring_ = new ArrayDeque<Line>();
+
+	/**
+	 * Number of lines received, guarded by lock_
+	 */
+	private long lineCount_ = 0L;
+
+	/**
+	 * Line number from which waitFor() searches, guarded by lock_
+	 */
+	private long markLine_ = 0L;
+
+	/**
+	 * Local file offset of the mark line, guarded by lock_
+	 */
+	private long markOffset_ = 0L;
+
+	/**
+	 * Local file offset of the next line, guarded by lock_
+	 */
+	private long nextOffset_ = 0L;
+
+	/**
+	 * Waiting patterns, guarded by lock_
+	 */
+	private List<Waiter> waiters_ = new ArrayList<Waiter>();
+
+	/**
+	 * Exception of the tailer thread, guarded by lock_
+	 */
+	private RuntimeException exp_;
+
+	/**
+	 * Running flag, guarded by lock_
+	 */
+	private boolean running_ = false;
+
+	/**
+	 * Poll requested flag, guarded by lock_
+	 */
+	private boolean pollRequested_ = false;
+
+	/**
+	 * Lock
+	 */
+	private Lock lock_ = new ReentrantLock();
+
+	/**
+	 * Poll request condition variable
+	 */
+	private Condition pollCond_ = lock_.newCondition();
+
+	/**
+	 * Line received condition variable
+	 */
+	private Condition lineCond_ = lock_.newCondition();
+
+	/**
+	 * Tailer thread
+	 */
+	private Thread thread_;
+
+	/**
+	 * Constructor
+	 * Polling interval and ring size are read from LogTailInterval(millisecond) and LogTailRingSize configuration.
+	 * @param sftp connected SFTP client used only by the tailer
+	 * @param loginfo log information got by SftpClient.getLoginfo()
+	 */
+	public LogTailer(SftpClient sftp, LogInfo loginfo) {
+		sftp_ = sftp;
+		loginfo_ = loginfo;
+		localPath_ = FileSystems.getDefault().getPath(loginfo.getLocalFilename());
+		int interval = Configure.getConfigAsInt("LogTailInterval");
+		int ringsize = Configure.getConfigAsInt("LogTailRingSize");
+		interval_ = TimeUnit.MILLISECONDS.toNanos(interval > 0 ? interval : DEFAULT_INTERVAL);
+		ringSize_ = ringsize > 0 ? ringsize : DEFAULT_RING_SIZE;
+	}
+
+	/**
+	 * Set polling interval
+	 * @param interval polling interval in millisecond
+	 */
+	public void setInterval(long interval) {
+		interval_ = TimeUnit.MILLISECONDS.toNanos(interval);
+	}
+
+	/**
+	 * Set max number of lines kept in memory, the older lines are read from the local log file
+	 * @param ringSize max number of lines
+	 */
+	public void setRingSize(int ringSize) {
+		ringSize_ = ringSize;
+	}
+
+	/**
+	 * Set character set of the log file
+	 * @param charsetName character set, default UTF-8
+	 */
+	public void setCharset(String charsetName) {
+		charset_ = Charset.forName(charsetName);
+	}
+
+	/**
+	 * Start tailing, the lines appended after the checkpoint of LogInfo are received
+	 */
+	public void start() {
+		long offset = Math.max(0L, loginfo_.getLocalSize());
+		lock_.lock();
+		try {
+			running_ = true;
+			nextOffset_ = offset;
+			markOffset_ = offset;
+		} finally {
+			lock_.unlock();
+		}
+		thread_ = new Thread(new Runnable() {
+			public void run() {
+				tailLoop();
+			}
+		}, "LogTailer");
+		thread_.setDaemon(true);
+		thread_.start();
+	}
+
+	/**
+	 * Stop tailing
+	 */
+	public void stop() {
+		lock_.lock();
+		try {
+			running_ = false;
+			pollCond_.signal();
+			lineCond_.signalAll();
+		} finally {
+			lock_.unlock();
+		}
+		try {
+			if (thread_ != null)
+				thread_.join();
+		} catch (InterruptedException exp) {
+			// ignore
+		}
+	}
+
+	/**
+	 * Set the mark to the end, waitFor() searches the lines received after this
+	 */
+	public void mark() {
+		lock_.lock();
+		try {
+			markLine_ = lineCount_;
+			markOffset_ = nextOffset_;
+		} finally {
+			lock_.unlock();
+		}
+	}
+
+	/**
+	 * Get number of lines received
+	 * @return number of lines
+	 */
+	public long lineCount() {
+		lock_.lock();
+		try {
+			return lineCount_;
+		} finally {
+			lock_.unlock();
+		}
+	}
+
+	/**
+	 * Get the lines kept in memory
+	 * @return latest lines
+	 */
+	public List<String> lines() {
+		List<String> lines = new ArrayList<String>();
+		lock_.lock();
+		try {
+			for (Line line : ring_) {
+				lines.add(line.text_);
+			}
+		} finally {
+			lock_.unlock();
+		}
+		return lines;
+	}
+
+	/**
+	 * Wait until the line matching the regular expression is received after the mark
+	 * @param regex regular expression matching the whole line
+	 * @param timeout time out in second
+	 * @return matched line, null if time out
+	 */
+	public String waitFor(String regex, long timeout) {
+		return waitFor(new RegexPattern(regex), timeout);
+	}
+
+	/**
+	 * Wait until the line matching the pattern is received after the mark.
+	 * The lines already received after the mark are searched first.
+	 * @param pattern pattern matching the line
+	 * @param timeout time out in second
+	 * @return matched line, null if time out
+	 */
+	public String waitFor(RegexPattern pattern, long timeout) {
+		Waiter waiter = new Waiter(pattern);
+		long diskfrom = -1L;
+		long disklines = 0L;
+		lock_.lock();
+		try {
+			checkException();
+			for (Line line : ring_) {
+				if (line.number_ >= markLine_ && pattern.match(line.text_))
+					return line.text_;
+			}
+			long firstline = ring_.isEmpty() ? lineCount_ : ring_.peekFirst().number_;
+			if (markLine_ < firstline) {
+				// the lines evicted from memory are read from the local log file
+				diskfrom = markOffset_;
+				disklines = firstline - markLine_;
+			}
+			waiters_.add(waiter);
+			pollRequested_ = true;
+			pollCond_.signal();
+		} finally {
+			lock_.unlock();
+		}
+
+		if (diskfrom >= 0L) {
+			String line = searchLocalFile(pattern, diskfrom, disklines);
+			if (line != null) {
+				removeWaiter(waiter);
+				return line;
+			}
+		}
+
+		lock_.lock();
+		try {
+			long remain = TimeUnit.SECONDS.toNanos(timeout);
+			while (waiter.line_ == null && exp_ == null && running_ && remain > 0L) {
+				try {
+					remain = lineCond_.awaitNanos(remain);
+				} catch (InterruptedException exp) {
+					// ignore
+				}
+			}
+			waiters_.remove(waiter);
+			if (waiter.line_ == null)
+				checkException();
+			return waiter.line_;
+		} finally {
+			lock_.unlock();
+		}
+	}
+
+	/**
+	 * Remove the waiting pattern
+	 * @param waiter waiting pattern
+	 */
+	private void removeWaiter(Waiter waiter) {
+		lock_.lock();
+		try {
+			waiters_.remove(waiter);
+		} finally {
+			lock_.unlock();
+		}
+	}
+
+	/**
+	 * Throw the exception happened in the tailer thread
+	 */
+	private void checkException() {
+		if (exp_ != null)
+			throw new TestException("Tail log " + loginfo_.getFilename() + " failed", exp_);
+	}
+
+	/**
+	 * Search the lines in the local log file
+	 * @param pattern pattern matching the line
+	 * @param offset offset of the first line
+	 * @param count number of lines to search
+	 * @return matched line, null if not found
+	 */
+	private String searchLocalFile(RegexPattern pattern, long offset, long count) {
+		LineSplitter splitter = new LineSplitter(offset);
+		List<Line> lines = new ArrayList<Line>();
+		ByteBuffer bb = ByteBuffer.allocate(BUF_SIZE);
+		try (FileChannel in = FileChannel.open(localPath_, StandardOpenOption.READ)) {
+			long pos = offset;
+			while (count > 0L) {
+				bb.clear();
+				int num = in.read(bb, pos);
+				if (num <= 0)
+					break;
+				pos += num;
+				splitter.feed(bb.array(), num, lines);
+				for (Line line : lines) {
+					if (count -- <= 0L)
+						break;
+					if (pattern.match(line.text_))
+						return line.text_;
+				}
+				lines.clear();
+			}
+		} catch (IOException exp) {
+			throw new TestException("File " + localPath_ + " read failed", exp);
+		}
+		return null;
+	}
+
+	/**
+	 * Tailer thread process
+	 */
+	private void tailLoop() {
+		LineSplitter splitter = null;
+		List<Line> lines = new ArrayList<Line>();
+		ByteBuffer bb = ByteBuffer.allocate(BUF_SIZE);
+		FileChannel in = null;
+		try {
+			for (;;) {
+				sftp_.getLogFile(loginfo_);
+				if (in == null) {
+					in = FileChannel.open(localPath_, StandardOpenOption.READ);
+					lock_.lock();
+					try {
+						splitter = new LineSplitter(nextOffset_);
+					} finally {
+						lock_.unlock();
+					}
+				}
+
+				// read the captured data from the local log file
+				boolean grown = false;
+				long pos = splitter.lineOffset_ + splitter.partial_.size();
+				for (;;) {
+					bb.clear();
+					int num = in.read(bb, pos);
+					if (num <= 0)
+						break;
+					pos += num;
+					grown = true;
+					splitter.feed(bb.array(), num, lines);
+					if (!lines.isEmpty()) {
+						addLines(lines, splitter.lineOffset_);
+						lines.clear();
+					}
+				}
+
+				lock_.lock();
+				try {
+					if (!grown && !pollRequested_ && running_)
+						pollCond_.awaitNanos(interval_);
+					pollRequested_ = false;
+					if (!running_)
+						break;
+				} catch (InterruptedException exp) {
+					// ignore
+				} finally {
+					lock_.unlock();
+				}
+			}
+		} catch (IOException exp) {
+			setException(new TestException("File " + localPath_ + " read failed", exp));
+		} catch (RuntimeException exp) {
+			setException(exp);
+		} finally {
+			try {
+				if (in != null)
+					in.close();
+			} catch (IOException exp) {
+				// ignore
+			}
+		}
+	}
+
+	/**
+	 * Add the received lines to the ring and match them with the waiting patterns
+	 * @param lines received lines
+	 * @param nextOffset local file offset of the next line
+	 */
+	private void addLines(List<Line> lines, long nextOffset) {
+		lock_.lock();
+		try {
+			boolean matched = false;
+			for (Line line : lines) {
+				line.number_ = lineCount_ ++;
+				ring_.addLast(line);
+				if (ring_.size() > ringSize_)
+					ring_.removeFirst();
+				for (int i = waiters_.size() - 1; i >= 0; i --) {
+					Waiter waiter = waiters_.get(i);
+					if (waiter.pattern_.match(line.text_)) {
+						waiter.line_ = line.text_;
+						waiters_.remove(i);
+						matched = true;
+					}
+				}
+			}
+			nextOffset_ = nextOffset;
+			if (matched)
+				lineCond_.signalAll();
+		} finally {
+			lock_.unlock();
+		}
+	}
+
+	/**
+	 * Record the exception of the tailer thread and wake up the waiting threads
+	 * @param exp exception
+	 */
+	private void setException(RuntimeException exp) {
+		lock_.lock();
+		try {
+			exp_ = exp;
+			lineCond_.signalAll();
+		} finally {
+			lock_.unlock();
+		}
+	}
+}
@@ -0,0 +1,622 @@
+package com.hpe.autoframework;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.testng.TestException;
+
+/**
+ *
+ * Grep engine for large local log files.
+ * The file is memory-mapped and split into line aligned segments processed in parallel by fork/join.
+ * Each segment reuses the compiled evaluator of the pattern pipeline and the charset decoder,
+ * and the line without the literal text required by a pattern is rejected on its bytes
+ * without decoding or running the regular expression.
+ * The matches are returned in order of the file.
+ * The line ends at LF, CR or CR LF. The charset must encode them as single bytes, e.g. UTF-8, ISO-8859-1, EUC-JP or Shift_JIS.
+ *
+ */
+public class MappedGrep {
+
+	/**
+	 * Default segment size processed by a task
+	 */
+	private static final long DEFAULT_SEGMENT_SIZE = 1024L * 1024 * 8;
+
+	/**
+	 * Shared fork/join pool
+	 */
+	private static ForkJoinPool pool_;
+
+	/**
+	 * Matched line
+	 */
+	public static class Match {
+		private long lineNumber_;
+		private long offset_;
+		private String line_;
+
+		Match(long lineNumber, long offset, String line) {
+			lineNumber_ = lineNumber;
+			offset_ = offset;
+			line_ = line;
+		}
+
+		/**
+		 * Get line number
+		 * @return line number from 1
+		 */
+		public long getLineNumber() {
+			return lineNumber_;
+		}
+
+		/**
+		 * Get byte offset of the line in the file
+		 * @return byte offset
+		 */
+		public long getOffset() {
+			return offset_;
+		}
+
+		/**
+		 * Get matched line
+		 * @return matched line
+		 */
+		public String getLine() {
+			return line_;
+		}
+
+		/**
+		 * Get the text representation of the match
+		 * @return text representation
+		 */
+		public String toString() {
+			return lineNumber_ + ": " + line_;
+		}
+	}
+
+	/**
+	 * Result of a pipeline in the segment
+	 */
+	private static class Tally {
+		long count_ = 0L;
+		long firstLine_ = -1L;
+		long lastLine_ = -1L;
+		List<Match> accepted_ = new ArrayList<Match>();
+		List<Match> failures_ = new ArrayList<Match>();
+		long failureCount_ = 0L;
+	}
+
+	/**
+	 * Result of a segment
+	 */
+	private static class Result {
+		Tally[] tallies_;
+		long lines_ = 0L;
+
+		Result(int pipelines) {
+			tallies_ = new Tally[pipelines];
+			for (int i = 0; i < pipelines; i ++) {
+				tallies_[i] = new Tally();
+			}
+		}
+	}
+
+	/**
+	 * Pipeline stage with the evaluator reused in the segment
+	 */
+	private static class Stage {
+		RegexPattern.Evaluator evaluator_;
+		int index_;
+		boolean normal_;
+		byte[] literal_;
+	}
+
+	/**
+	 * Task processing the range of segments
+	 */
+	private class ScanTask extends RecursiveTask<Result> {
+		private static final long serialVersionUID = 1L;
+		int from_;
+		int to_;
+
+		ScanTask(int from, int to) {
+			from_ = from;
+			to_ = to;
+		}
+
+		protected Result compute() {
+			if (to_ - from_ == 1)
+				return scanSegment(from_);
+			int mid = (from_ + to_) >>> 1;
+			ScanTask left = new ScanTask(from_, mid);
+			ScanTask right = new ScanTask(mid, to_);
+			right.fork();
+			Result result = left.compute();
+			Result rest = right.join();
+			for (int i = 0; i < result.tallies_.length; i ++) {
+				merge(result.tallies_[i], rest.tallies_[i], result.lines_, maxFailures_[i]);
+			}
+			result.lines_ += rest.lines_;
+			return result;
+		}
+	}
+
+	/**
+	 * Local file name
+	 */
+	private String filename_;
+
+	/**
+	 * Character set of the file
+	 */
+	private Charset charset_;
+
+	/**
+	 * Segment size processed by a task
+	 */
+	private long segmentSize_ = DEFAULT_SEGMENT_SIZE;
+
+	/**
+	 * Segment boundaries, boundary i to i+1 is the segment i
+	 */
+	private long[] bounds_;
+
+	/**
+	 * File being scanned
+	 */
+	private FileChannel channel_;
+
+	/**
+	 * Pattern pipelines being scanned
+	 */
+	private RegexPattern[] patterns_;
+
+	/**
+	 * Whether only the first pattern of each pipeline is matched without its anti flag, to count the lines.
+	 * null if no pipeline is counted.
+	 */
+	private boolean[] countOnly_;
+
+	/**
+	 * Whether the lines satisfying the pipeline are collected
+	 */
+	private boolean collectAccepted_;
+
+	/**
+	 * Max number of the lines failing the last pattern collected for each pipeline
+	 */
+	private int[] maxFailures_;
+
+	/**
+	 * Whether the scan stops at the first line failing the last pattern
+	 */
+	private boolean stopOnFailure_;
+
+	/**
+	 * Constructor, the charset is LogGrepCharset configuration or UTF-8
+	 * @param filename local file name
+	 */
+	public MappedGrep(String filename) {
+		filename_ = filename;
+		charset_ = defaultCharset();
+	}
+
+	/**
+	 * Get the character set of the log file configured by LogGrepCharset, UTF-8 if not configured
+	 * @return character set
+	 */
+	static Charset defaultCharset() {
+		String charset = Configure.getConfig("LogGrepCharset");
+		return charset != null ? Charset.forName(charset) : StandardCharsets.UTF_8;
+	}
+
+	/**
+	 * Check whether the charset can be processed by this engine
+	 * @param charset character set
+	 * @return true: carriage return and line feed are encoded as single bytes
+	 */
+	static boolean isSupported(Charset charset) {
+		return charset.canEncode() && Arrays.equals("\r\n".getBytes(charset), new byte[] {'\r', '\n'});
+	}
+
+	/**
+	 * Set character set of the file
+	 * @param charset character set
+	 */
+	public void setCharset(Charset charset) {
+		assert isSupported(charset) : "Charset " + charset + " is not supported";
+		charset_ = charset;
+	}
+
+	/**
+	 * Set segment size processed by a task
+	 * @param segmentSize segment size in byte
+	 */
+	public void setSegmentSize(long segmentSize) {
+		segmentSize_ = segmentSize;
+	}
+
+	/**
+	 * Find the lines satisfying all the stages of the pattern pipeline
+	 * @param pattern regular expression pattern
+	 * @return matched lines in order of the file
+	 */
+	public synchronized List<Match> find(RegexPattern pattern) {
+		patterns_ = new RegexPattern[] { pattern };
+		maxFailures_ = new int[] { 0 };
+		collectAccepted_ = true;
+		return scan().tallies_[0].accepted_;
+	}
+
+	/**
+	 * Find the first line which passes the pipeline to the last stage and fails it
+	 * @param pattern regular expression pattern
+	 * @return failed line, null if none
+	 */
+	public synchronized Match verify(RegexPattern pattern) {
+		patterns_ = new RegexPattern[] { pattern };
+		maxFailures_ = new int[] { 1 };
+		stopOnFailure_ = true;
+		List<Match> failures = scan().tallies_[0].failures_;
+		return failures.isEmpty() ? null : failures.get(0);
+	}
+
+	/**
+	 * Count the lines matching the first pattern
+	 * @param pattern regular expression pattern
+	 * @return number of matched lines
+	 */
+	public synchronized long count(RegexPattern pattern) {
+		patterns_ = new RegexPattern[] { pattern };
+		maxFailures_ = new int[] { 0 };
+		countOnly_ = new boolean[] { true };
+		return scan().tallies_[0].count_;
+	}
+
+	/**
+	 * Evaluate all the assertions of the report in one pass
+	 * @param report assertions, the results are recorded into it
+	 */
+	public synchronized void report(GrepReport report) {
+		patterns_ = new RegexPattern[report.size()];
+		maxFailures_ = new int[report.size()];
+		countOnly_ = new boolean[report.size()];
+		for (int i = 0; i < patterns_.length; i ++) {
+			patterns_[i] = report.getPattern(i);
+			maxFailures_[i] = report.maxOffendingLines(i);
+			countOnly_[i] = report.isCount(i);
+		}
+		report.reset(filename_);
+		Result result = scan();
+		for (int i = 0; i < result.tallies_.length; i ++) {
+			Tally tally = result.tallies_[i];
+			report.record(i, tally.count_, tally.firstLine_, tally.lastLine_, tally.failures_, tally.failureCount_);
+		}
+	}
+
+	/**
+	 * Scan the file with the pipelines and options set, the options are cleared after the scan
+	 * @return result, the line numbers are from 1
+	 */
+	private Result scan() {
+		Path path = FileSystems.getDefault().getPath(filename_);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			channel_ = channel;
+			bounds_ = splitSegments(channel);
+			if (bounds_.length < 2)
+				return new Result(patterns_.length);
+			Result result = getPool().invoke(new ScanTask(0, bounds_.length - 1));
+			for (Tally tally : result.tallies_) {
+				toLineNumbers(tally);
+			}
+			return result;
+		} catch (IOException exp) {
+			throw new TestException("File " + filename_ + " grep failed", exp);
+		} finally {
+			channel_ = null;
+			patterns_ = null;
+			countOnly_ = null;
+			collectAccepted_ = false;
+			stopOnFailure_ = false;
+		}
+	}
+
+	/**
+	 * Merge the result of the following lines, the line numbers of them are shifted
+	 * @param tally result of the preceding lines
+	 * @param rest result of the following lines
+	 * @param shift number of the lines preceding the following lines
+	 * @param maxFailures max number of the failed lines to keep
+	 */
+	private void merge(Tally tally, Tally rest, long shift, int maxFailures) {
+		if (stopOnFailure_ && tally.failureCount_ > 0L)
+			return;
+		for (Match match : rest.accepted_) {
+			match.lineNumber_ += shift;
+		}
+		for (Match match : rest.failures_) {
+			match.lineNumber_ += shift;
+		}
+		if (tally.firstLine_ < 0L && rest.firstLine_ >= 0L)
+			tally.firstLine_ = rest.firstLine_ + shift;
+		if (rest.lastLine_ >= 0L)
+			tally.lastLine_ = rest.lastLine_ + shift;
+		tally.count_ += rest.count_;
+		tally.accepted_.addAll(rest.accepted_);
+		for (Match match : rest.failures_) {
+			if (tally.failures_.size() >= maxFailures)
+				break;
+			tally.failures_.add(match);
+		}
+		tally.failureCount_ += rest.failureCount_;
+	}
+
+	/**
+	 * Convert the line indexes from 0 of the result to the line numbers from 1
+	 * @param tally result of the whole file
+	 */
+	private static void toLineNumbers(Tally tally) {
+		for (Match match : tally.accepted_) {
+			match.lineNumber_ ++;
+		}
+		for (Match match : tally.failures_) {
+			match.lineNumber_ ++;
+		}
+		if (tally.firstLine_ >= 0L)
+			tally.firstLine_ ++;
+		if (tally.lastLine_ >= 0L)
+			tally.lastLine_ ++;
+	}
+
+	/**
+	 * Split the file into the segments starting at the beginning of line
+	 * @param channel file
+	 * @return segment boundaries
+	 * @throws IOException throw when I/O error happens
+	 */
+	private long[] splitSegments(FileChannel channel) throws IOException {
+		long size = channel.size();
+		List<Long> bounds = new ArrayList<Long>();
+		bounds.add(0L);
+		ByteBuffer bb = ByteBuffer.allocate(1024 * 4);
+		long pos = segmentSize_;
+		while (pos < size) {
+			// move the boundary to the next line
+			long next = -1L;
+			while (next < 0L && pos < size) {
+				bb.clear();
+				int num = channel.read(bb, pos);
+				if (num <= 0)
+					break;
+				for (int i = 0; i < num; i ++) {
+					byte b = bb.get(i);
+					if (b == '\n') {
+						next = pos + i + 1;
+						break;
+					}
+					if (b == '\r') {
+						// CR LF is one line end, the boundary is after LF
+						if (i + 1 < num)
+							next = bb.get(i + 1) == '\n' ? pos + i + 2 : pos + i + 1;
+						else
+							next = isLineFeed(channel, pos + i + 1) ? pos + i + 2 : pos + i + 1;
+						break;
+					}
+				}
+				if (next < 0L)
+					pos += num;
+			}
+			if (next < 0L || next >= size)
+				break;
+			bounds.add(next);
+			pos = next + segmentSize_;
+		}
+		if (size > 0L)
+			bounds.add(size);
+		long[] result = new long[bounds.size()];
+		for (int i = 0; i < result.length; i ++) {
+			result[i] = bounds.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Check whether the byte at the position is line feed
+	 * @param channel file
+	 * @param pos position
+	 * @return true: line feed   false: other byte or end of file
+	 * @throws IOException throw when I/O error happens
+	 */
+	private static boolean isLineFeed(FileChannel channel, long pos) throws IOException {
+		ByteBuffer one = ByteBuffer.allocate(1);
+		return channel.read(one, pos) == 1 && one.get(0) == '\n';
+	}
+
+	/**
+	 * Scan the segment
+	 * @param index segment index
+	 * @return result of the segment, the line numbers are relative to the segment
+	 */
+	private Result scanSegment(int index) {
+		long start = bounds_[index];
+		long end = bounds_[index + 1];
+		MappedByteBuffer buf;
+		try {
+			buf = channel_.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+		} catch (IOException exp) {
+			throw new TestException("File " + filename_ + " map failed", exp);
+		}
+
+		Stage[][] pipelines = new Stage[patterns_.length][];
+		for (int i = 0; i < patterns_.length; i ++) {
+			pipelines[i] = newStages(patterns_[i], countOnly_ != null && countOnly_[i]);
+		}
+		CharsetDecoder decoder = charset_.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+		CharBuffer chars = CharBuffer.allocate(1024);
+
+		Result result = new Result(pipelines.length);
+		int limit = buf.limit();
+		int linestart = 0;
+		while (linestart < limit) {
+			// the line ends at LF, CR or CR LF as BufferedReader.readLine()
+			int lineend = linestart;
+			byte b = 0;
+			while (lineend < limit && (b = buf.get(lineend)) != '\n' && b != '\r')
+				lineend ++;
+			int next = lineend + 1;
+			if (b == '\r' && next < limit && buf.get(next) == '\n')
+				next ++;
+
+			// evaluate the pipelines, the line is decoded once when a regular expression runs first
+			boolean decoded = false;
+			for (int p = 0; p < pipelines.length; p ++) {
+				Stage[] stages = pipelines[p];
+				int failed = -1;
+				for (int i = 0; i < stages.length; i ++) {
+					Stage stage = stages[i];
+					boolean matched;
+					if (stage.literal_ != null && !contains(buf, linestart, lineend, stage.literal_)) {
+						matched = false;
+					} else {
+						if (!decoded) {
+							chars = decode(decoder, buf, linestart, lineend, chars);
+							decoded = true;
+						}
+						matched = stage.evaluator_.matches(stage.index_, chars);
+					}
+					if (matched != stage.normal_) {
+						failed = i;
+						break;
+					}
+				}
+
+				Tally tally = result.tallies_[p];
+				if (failed < 0) {
+					tally.count_ ++;
+					if (tally.firstLine_ < 0L)
+						tally.firstLine_ = result.lines_;
+					tally.lastLine_ = result.lines_;
+					if (collectAccepted_) {
+						if (!decoded) {
+							chars = decode(decoder, buf, linestart, lineend, chars);
+							decoded = true;
+						}
+						tally.accepted_.add(new Match(result.lines_, start + linestart, chars.toString()));
+					}
+				} else if (failed == stages.length - 1 && maxFailures_[p] > 0) {
+					if (tally.failures_.size() < maxFailures_[p]) {
+						if (!decoded) {
+							chars = decode(decoder, buf, linestart, lineend, chars);
+							decoded = true;
+						}
+						tally.failures_.add(new Match(result.lines_, start + linestart, chars.toString()));
+					}
+					tally.failureCount_ ++;
+					if (stopOnFailure_) {
+						// the first failure is enough, the lines after it are not counted
+						return result;
+					}
+				}
+			}
+			result.lines_ ++;
+			linestart = next;
+		}
+		return result;
+	}
+
+	/**
+	 * Create the stages of the pattern pipeline for a segment
+	 * @param pattern regular expression pattern
+	 * @param countOnly true: only the first pattern is matched without its anti flag
+	 * @return stages
+	 */
+	private Stage[] newStages(RegexPattern pattern, boolean countOnly) {
+		List<Stage> stages = new ArrayList<Stage>();
+		RegexPattern.Evaluator evaluator = pattern.newEvaluator();
+		for (; pattern != null; pattern = pattern.getNext()) {
+			Stage stage = new Stage();
+			stage.evaluator_ = evaluator;
+			stage.index_ = stages.size();
+			stage.normal_ = countOnly || pattern.isNormalPattern();
+			stage.literal_ = pattern.getLiteral() != null ? pattern.getLiteral().getBytes(charset_) : null;
+			stages.add(stage);
+			if (countOnly)
+				break;
+		}
+		return stages.toArray(new Stage[stages.size()]);
+	}
+
+	/**
+	 * Check whether the line contains the literal bytes
+	 * @param buf segment
+	 * @param from start of the line
+	 * @param to end of the line
+	 * @param literal literal bytes
+	 * @return true: contains   false: doesn't contain
+	 */
+	private static boolean contains(ByteBuffer buf, int from, int to, byte[] literal) {
+		byte first = literal[0];
+		int last = to - literal.length;
+		for (int i = from; i <= last; i ++) {
+			if (buf.get(i) != first)
+				continue;
+			int j = 1;
+			while (j < literal.length && buf.get(i + j) == literal[j])
+				j ++;
+			if (j == literal.length)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Decode the line
+	 * @param decoder charset decoder
+	 * @param buf segment
+	 * @param from start of the line
+	 * @param to end of the line
+	 * @param chars buffer to reuse
+	 * @return decoded line, flipped for reading
+	 */
+	private static CharBuffer decode(CharsetDecoder decoder, ByteBuffer buf, int from, int to, CharBuffer chars) {
+		ByteBuffer line = buf.duplicate();
+		line.limit(to).position(from);
+		int capacity = (int)((to - from) * decoder.maxCharsPerByte()) + 1;
+		if (chars.capacity() < capacity)
+			chars = CharBuffer.allocate(capacity);
+		chars.clear();
+		decoder.reset();
+		decoder.decode(line, chars, true);
+		decoder.flush(chars);
+		chars.flip();
+		return chars;
+	}
+
+	/**
+	 * Get the shared fork/join pool, the parallelism is LogGrepThreads configuration
+	 * @return fork/join pool
+	 */
+	private static synchronized ForkJoinPool getPool() {
+		if (pool_ == null) {
+			int threads = Configure.getConfigAsInt("LogGrepThreads");
+			pool_ = new ForkJoinPool(threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+		}
+		return pool_;
+	}
+}
@@ -0,0 +1,184 @@
+package com.hpe.autoframework;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ *
+ * Multiple text pattern matcher implemented by Aho-Corasick automaton.
+ * Each pattern has flags, the flags of all the patterns ending at the current
+ * character are returned after feeding the character.
+ * The automaton is compiled into a deterministic transition table at construction.
+ *
+ */
+public class MultiPatternMatcher {
+
+	/**
+	 * Initial state
+	 */
+	public static final int INITIAL_STATE = 0;
+
+	/**
+	 * Character to alphabet index table for ASCII characters
+	 */
+	private int[] asciiIndex_ = new int[128];
+
+	/**
+	 * Sorted non ASCII characters in the patterns
+	 */
+	private char[] otherChars_;
+
+	/**
+	 * Alphabet size, index 0 is for the characters not in any pattern
+	 */
+	private int alphabetSize_;
+
+	/**
+	 * Transition table, next state = delta_[state * alphabetSize_ + index]
+	 */
+	private int[] delta_;
+
+	/**
+	 * Flags of the patterns ending at each state
+	 */
+	private int[] flags_;
+
+	/**
+	 * Constructor
+	 * Null or empty patterns are ignored.
+	 * @param patterns patterns to match
+	 * @param flags flags of each pattern
+	 */
+	public MultiPatternMatcher(String[] patterns, int[] flags) {
+		buildAlphabet(patterns);
+
+		// build trie
+		List<int[]> gotos = new ArrayList<int[]>();
+		List<Integer> outs = new ArrayList<Integer>();
+		gotos.add(newRow());
+		outs.add(0);
+		for (int i = 0; i < patterns.length; i ++) {
+			String pattern = patterns[i];
+			if (pattern == null || pattern.isEmpty())
+				continue;
+			int state = INITIAL_STATE;
+			for (int j = 0; j < pattern.length(); j ++) {
+				int index = indexOf(pattern.charAt(j));
+				int next = gotos.get(state)[index];
+				if (next < 0) {
+					next = gotos.size();
+					gotos.add(newRow());
+					outs.add(0);
+					gotos.get(state)[index] = next;
+				}
+				state = next;
+			}
+			outs.set(state, outs.get(state) | flags[i]);
+		}
+
+		// convert into deterministic automaton in breadth first order
+		int states = gotos.size();
+		delta_ = new int[states * alphabetSize_];
+		flags_ = new int[states];
+		int[] fail = new int[states];
+		Queue<Integer> queue = new LinkedList<Integer>();
+		for (int c = 0; c < alphabetSize_; c ++) {
+			int next = gotos.get(INITIAL_STATE)[c];
+			if (next < 0) {
+				delta_[c] = INITIAL_STATE;
+			} else {
+				delta_[c] = next;
+				fail[next] = INITIAL_STATE;
+				queue.add(next);
+			}
+		}
+		flags_[INITIAL_STATE] = outs.get(INITIAL_STATE);
+		while (!queue.isEmpty()) {
+			int state = queue.poll();
+			flags_[state] = outs.get(state) | flags_[fail[state]];
+			for (int c = 0; c < alphabetSize_; c ++) {
+				int next = gotos.get(state)[c];
+				if (next < 0) {
+					delta_[state * alphabetSize_ + c] = delta_[fail[state] * alphabetSize_ + c];
+				} else {
+					delta_[state * alphabetSize_ + c] = next;
+					fail[next] = delta_[fail[state] * alphabetSize_ + c];
+					queue.add(next);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Feed one character to the automaton
+	 * @param state current state
+	 * @param c character
+	 * @return next state
+	 */
+	public int next(int state, char c) {
+		return delta_[state * alphabetSize_ + indexOf(c)];
+	}
+
+	/**
+	 * Get the flags of the patterns ending at the state
+	 * @param state state
+	 * @return flags, 0 if no pattern ends at the state
+	 */
+	public int flags(int state) {
+		return flags_[state];
+	}
+
+	/**
+	 * Collect the characters in the patterns into the alphabet
+	 * @param patterns patterns to match
+	 */
+	private void buildAlphabet(String[] patterns) {
+		boolean[] ascii = new boolean[128];
+		StringBuilder others = new StringBuilder();
+		for (String pattern : patterns) {
+			if (pattern == null)
+				continue;
+			for (int i = 0; i < pattern.length(); i ++) {
+				char c = pattern.charAt(i);
+				if (c < 128)
+					ascii[c] = true;
+				else if (others.indexOf(String.valueOf(c)) < 0)
+					others.append(c);
+			}
+		}
+		int size = 1;
+		for (int c = 0; c < 128; c ++) {
+			asciiIndex_[c] = ascii[c] ? size ++ : 0;
+		}
+		otherChars_ = others.toString().toCharArray();
+		Arrays.sort(otherChars_);
+		alphabetSize_ = size + otherChars_.length;
+	}
+
+	/**
+	 * Get the alphabet index of the character
+	 * @param c character
+	 * @return alphabet index, 0 if the character is not in any pattern
+	 */
+	private int indexOf(char c) {
+		if (c < 128)
+			return asciiIndex_[c];
+		int index = Arrays.binarySearch(otherChars_, c);
+		if (index < 0)
+			return 0;
+		return alphabetSize_ - otherChars_.length + index;
+	}
+
+	/**
+	 * Create a new trie transition row
+	 * @return transition row filled with -1
+	 */
+	private int[] newRow() {
+		int[] row = new int[alphabetSize_];
+		Arrays.fill(row, -1);
+		return row;
+	}
+}
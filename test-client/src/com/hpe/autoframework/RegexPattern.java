@@ -1,10 +1,14 @@
 package com.hpe.autoframework;
 
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
  * 
  * Regular expression pattern
+ * The pipeline is compiled into an evaluator which checks the required literal text
+ * of each pattern before running it, and matches the patterns in turn without recursion.
+ * The full line pattern like .*X.* is evaluated by find() of X.
  *
  */
 public class RegexPattern {
@@ -25,13 +29,112 @@ public class RegexPattern {
 	 */
 	private RegexPattern next_;
 	
+	/**
+	 * Literal text every matching line contains, null if none
+	 */
+	private String literal_;
+	
+	/**
+	 * Pattern X of the full line pattern .*X.* to find, null if not rewritten
+	 */
+	private Pattern findPattern_;
+	
+	/**
+	 * Evaluator of the pipeline for each thread
+	 */
+	private ThreadLocal<Evaluator> evaluator_ = new ThreadLocal<Evaluator>() {
+		protected Evaluator initialValue() {
+			return new Evaluator(RegexPattern.this);
+		}
+	};
+	
+	/**
+	 * Compiled pipeline reusing the matchers, it must be used by one thread
+	 */
+	static class Evaluator {
+		private Matcher[] matchers_;
+		private Matcher[] findMatchers_;
+		private String[] literals_;
+		private boolean[] normal_;
+
+		/**
+		 * Constructor
+		 * @param pattern first pattern of the pipeline
+		 */
+		Evaluator(RegexPattern pattern) {
+			int len = pattern.length();
+			matchers_ = new Matcher[len];
+			findMatchers_ = new Matcher[len];
+			literals_ = new String[len];
+			normal_ = new boolean[len];
+			for (int i = 0; i < len; i ++) {
+				matchers_[i] = pattern.pattern_.matcher("");
+				findMatchers_[i] = pattern.findPattern_ != null ? pattern.findPattern_.matcher("") : null;
+				literals_[i] = pattern.literal_;
+				normal_[i] = pattern.normalPattern_;
+				pattern = pattern.next_;
+			}
+		}
+
+		/**
+		 * Get number of the patterns
+		 * @return number of the patterns
+		 */
+		int length() {
+			return matchers_.length;
+		}
+
+		/**
+		 * Check whether the pattern is normal pattern
+		 * @param index index of the pattern in the pipeline
+		 * @return true: normal pattern   false: anti pattern
+		 */
+		boolean isNormal(int index) {
+			return normal_[index];
+		}
+
+		/**
+		 * Match the whole line with the pattern
+		 * @param index index of the pattern in the pipeline
+		 * @param line line
+		 * @return true: matched   false: not matched
+		 */
+		boolean matches(int index, CharSequence line) {
+			String literal = literals_[index];
+			if (literal != null && indexOf(line, literal) < 0)
+				return false;
+			Matcher finder = findMatchers_[index];
+			if (finder != null) {
+				if (!finder.reset(line).find())
+					return false;
+				// .* doesn't match line terminators, the line including them needs the full match
+				if (!hasLineTerminator(line))
+					return true;
+			}
+			return matchers_[index].reset(line).matches();
+		}
+
+		/**
+		 * Get the first pattern in the pipeline the line doesn't satisfy
+		 * @param line line
+		 * @return index of the pattern in the pipeline, -1 if the line satisfies all
+		 */
+		int firstUnsatisfied(CharSequence line) {
+			for (int i = 0; i < matchers_.length; i ++) {
+				if (matches(i, line) != normal_[i])
+					return i;
+			}
+			return -1;
+		}
+	}
+	
 	
 	/**
 	 * Constructor
 	 * @param regex regular expression
 	 */
 	public RegexPattern(String regex) {
-		pattern_ = Pattern.compile(regex);
+		compile(regex);
 	}
 
 	/**
@@ -40,7 +143,7 @@ public class RegexPattern {
 	 * @param normalPattern true: normal pattern, false: anti pattern
 	 */
 	public RegexPattern(String regex, boolean normalPattern) {
-		pattern_ = Pattern.compile(regex);
+		compile(regex);
 		normalPattern_= normalPattern;
 	}
 
@@ -51,7 +154,7 @@ public class RegexPattern {
 	 */
 	public RegexPattern(String regex, RegexPattern next) {
 		next_ = next;
-		pattern_ = Pattern.compile(regex);
+		compile(regex);
 	}
 
 	/**
@@ -62,32 +165,31 @@ public class RegexPattern {
 	 */
 	public RegexPattern(String regex, boolean normalPattern, RegexPattern next) {
 		next_ = next;
-		pattern_ = Pattern.compile(regex);
+		compile(regex);
 		normalPattern_= normalPattern;
 	}
 	
+	/**
+	 * Compile the regular expression
+	 * @param regex regular expression
+	 */
+	private void compile(String regex) {
+		pattern_ = Pattern.compile(regex);
+		literal_ = requiredLiteral(regex);
+		String inner = findableInner(regex);
+		if (inner != null)
+			findPattern_ = Pattern.compile(inner);
+	}
+	
 	/**
 	 * Match with the specified file
 	 * @param filename file to match
 	 * @param line line
 	 */
 	void match(String filename, String line) {
-		boolean matched = pattern_.matcher(line).matches();
-		if (next_ == null) {
-			if (normalPattern_) {
-				assert matched : filename + " : " + line;
-			} else {
-				assert (!matched) : filename + " : " + line;
-			}
-		} else {
-			if (normalPattern_) {
-				if (matched)
-					next_.match(filename, line);
-			} else {
-				if (!matched)
-					next_.match(filename, line);
-			}
-		}
+		// only the last pattern in the pipeline is asserted, the others filter the line
+		Evaluator evaluator = evaluator_.get();
+		assert evaluator.firstUnsatisfied(line) != evaluator.length() - 1 : filename + " : " + line;
 	}
 	/**
 	 * Match with the specified file
@@ -95,6 +197,332 @@ public class RegexPattern {
 	 * @param line line
 	 */
 	public boolean match(String line) {
-		return pattern_.matcher(line).matches();
+		return evaluator_.get().matches(0, line);
+	}
+
+	/**
+	 * Check whether the line satisfies all the patterns in the pipeline
+	 * @param line line
+	 * @return true: normal patterns match and anti patterns don't match
+	 */
+	public boolean accepts(String line) {
+		return firstUnsatisfied(line) < 0;
+	}
+
+	/**
+	 * Get the first pattern in the pipeline the line doesn't satisfy
+	 * @param line line
+	 * @return index of the pattern in the pipeline, -1 if the line satisfies all
+	 */
+	int firstUnsatisfied(String line) {
+		return evaluator_.get().firstUnsatisfied(line);
+	}
+
+	/**
+	 * Create new evaluator of the pipeline for a thread
+	 * @return evaluator
+	 */
+	Evaluator newEvaluator() {
+		return new Evaluator(this);
+	}
+
+	/**
+	 * Get number of the patterns in the pipeline
+	 * @return number of the patterns
+	 */
+	int length() {
+		int len = 0;
+		for (RegexPattern pattern = this; pattern != null; pattern = pattern.next_) {
+			len ++;
+		}
+		return len;
+	}
+
+	/**
+	 * Get compiled pattern
+	 * @return compiled pattern
+	 */
+	Pattern getPattern() {
+		return pattern_;
+	}
+
+	/**
+	 * Check whether this is normal pattern
+	 * @return true: normal pattern   false: anti pattern
+	 */
+	boolean isNormalPattern() {
+		return normalPattern_;
+	}
+
+	/**
+	 * Get next regular expression pattern in the pipeline
+	 * @return next pattern, null if this is the last
+	 */
+	RegexPattern getNext() {
+		return next_;
+	}
+
+	/**
+	 * Get literal text every matching line contains,
+	 * the line without it is known not to match without running the regular expression
+	 * @return literal text, null if none
+	 */
+	String getLiteral() {
+		return literal_;
+	}
+
+	/**
+	 * Extract the longest literal text the regular expression always requires.
+	 * Only the top level of the expression is examined, and the expression including
+	 * alternation or inline flags has no literal since it may change the meaning.
+	 * @param regex regular expression
+	 * @return literal text, null if none
+	 */
+	static String requiredLiteral(String regex) {
+		if (regex.indexOf('|') >= 0 || regex.contains("(?"))
+			return null;
+		String longest = "";
+		StringBuilder run = new StringBuilder();
+		int depth = 0;
+		int len = regex.length();
+		for (int i = 0; i < len; i ++) {
+			char ch = regex.charAt(i);
+			if (ch == '\\' && i + 1 < len) {
+				char esc = regex.charAt(++ i);
+				if (esc == 'Q') {
+					int end = regex.indexOf("\\E", i + 1);
+					String quoted = regex.substring(i + 1, end < 0 ? len : end);
+					i = end < 0 ? len : end + 1;
+					if (depth == 0 && !followedByOptional(regex, i + 1))
+						run.append(quoted);
+					else
+						run.setLength(0);
+					continue;
+				}
+				if (depth == 0 && !Character.isLetterOrDigit(esc)) {
+					run.append(esc);
+				} else {
+					// the operand of the escape, e.g. the digits of \x41, is not literal text
+					i = skipEscapeOperand(regex, i);
+					longest = longer(longest, run);
+					run.setLength(0);
+				}
+			} else if (ch == '[') {
+				// skip character class
+				longest = longer(longest, run);
+				run.setLength(0);
+				int nest = 1;
+				while (nest > 0 && ++ i < len) {
+					char c = regex.charAt(i);
+					if (c == '\\')
+						i ++;
+					else if (c == '[')
+						nest ++;
+					else if (c == ']')
+						nest --;
+				}
+			} else if (ch == '(' || ch == ')') {
+				longest = longer(longest, run);
+				run.setLength(0);
+				depth += ch == '(' ? 1 : -1;
+			} else if (ch == '?' || ch == '*' || ch == '{') {
+				// the previous character is optional
+				if (run.length() > 0)
+					run.setLength(run.length() - 1);
+				longest = longer(longest, run);
+				run.setLength(0);
+				if (ch == '{') {
+					int end = regex.indexOf('}', i);
+					i = end < 0 ? len : end;
+				}
+			} else if (ch == '+' || ch == '.' || ch == '^' || ch == '$') {
+				longest = longer(longest, run);
+				run.setLength(0);
+			} else if (depth == 0) {
+				run.append(ch);
+			}
+		}
+		longest = longer(longest, run);
+		return longest.isEmpty() ? null : longest;
+	}
+
+	/**
+	 * Skip the operand of the escape taking it, the hexadecimal digits of x and u,
+	 * the octal digits of 0, the control character of c, the name of k, p, P and N,
+	 * and the digits of the back reference
+	 * @param regex regular expression
+	 * @param index index of the escaped character
+	 * @return index of the last character of the escape
+	 */
+	private static int skipEscapeOperand(String regex, int index) {
+		int len = regex.length();
+		char esc = regex.charAt(index);
+		int end = index;
+		switch (esc) {
+		case 'x':
+			if (index + 1 < len && regex.charAt(index + 1) == '{')
+				end = closing(regex, index + 1, '}');
+			else
+				end = index + 2;
+			break;
+		case 'u':
+			end = index + 4;
+			break;
+		case '0':
+			// up to 3 octal digits, the value doesn't exceed 0377
+			while (end < index + 3 && end + 1 < len && regex.charAt(end + 1) >= '0' && regex.charAt(end + 1) <= '7')
+				end ++;
+			if (end == index + 3 && regex.charAt(index + 1) > '3')
+				end --;
+			break;
+		case 'c':
+			end = index + 1;
+			break;
+		case 'k':
+			if (index + 1 < len && regex.charAt(index + 1) == '<')
+				end = closing(regex, index + 1, '>');
+			break;
+		case 'p':
+		case 'P':
+		case 'N':
+			if (index + 1 < len && regex.charAt(index + 1) == '{')
+				end = closing(regex, index + 1, '}');
+			else
+				end = index + 1;
+			break;
+		default:
+			// back reference, the following digits may be a part of it
+			if (esc >= '1' && esc <= '9') {
+				while (end + 1 < len && Character.isDigit(regex.charAt(end + 1)))
+					end ++;
+			}
+			break;
+		}
+		return Math.min(end, len - 1);
+	}
+
+	/**
+	 * Find the closing character of the operand
+	 * @param regex regular expression
+	 * @param open index of the opening character
+	 * @param close closing character
+	 * @return index of the closing character, the end of the expression if none
+	 */
+	private static int closing(String regex, int open, char close) {
+		int end = regex.indexOf(close, open + 1);
+		return end < 0 ? regex.length() - 1 : end;
+	}
+
+	/**
+	 * Check whether the quantifier making the previous element optional follows
+	 * @param regex regular expression
+	 * @param index index next to the element
+	 * @return true: optional   false: required
+	 */
+	private static boolean followedByOptional(String regex, int index) {
+		if (index >= regex.length())
+			return false;
+		char ch = regex.charAt(index);
+		return ch == '?' || ch == '*' || ch == '{';
+	}
+
+	/**
+	 * Get the longer text
+	 * @param longest current longest text
+	 * @param run candidate text
+	 * @return longer text
+	 */
+	private static String longer(String longest, StringBuilder run) {
+		return run.length() > longest.length() ? run.toString() : longest;
+	}
+
+	/**
+	 * Get the inner pattern X of the full line pattern .*X.* which can be evaluated by find().
+	 * The pattern with top level alternation, inline flags, quotation or the quantified
+	 * leading .* is not rewritten since find() of X may differ.
+	 * @param regex regular expression
+	 * @return inner pattern, null if not rewritable
+	 */
+	static String findableInner(String regex) {
+		if (regex.length() < 4 || !regex.startsWith(".*") || !regex.endsWith(".*"))
+			return null;
+		if (regex.contains("(?") || regex.contains("\\Q"))
+			return null;
+		String inner = regex.substring(2, regex.length() - 2);
+		if (!inner.isEmpty() && "?+*{".indexOf(inner.charAt(0)) >= 0)
+			return null;
+		// the trailing . must not be escaped
+		int escapes = 0;
+		for (int i = inner.length() - 1; i >= 0 && inner.charAt(i) == '\\'; i --) {
+			escapes ++;
+		}
+		if (escapes % 2 != 0)
+			return null;
+		// top level alternation binds the leading and trailing .* to each alternative
+		int depth = 0;
+		for (int i = 0; i < inner.length(); i ++) {
+			char ch = inner.charAt(i);
+			if (ch == '\\') {
+				i ++;
+			} else if (ch == '[') {
+				int nest = 1;
+				while (nest > 0 && ++ i < inner.length()) {
+					char c = inner.charAt(i);
+					if (c == '\\')
+						i ++;
+					else if (c == '[')
+						nest ++;
+					else if (c == ']')
+						nest --;
+				}
+			} else if (ch == '(') {
+				depth ++;
+			} else if (ch == ')') {
+				depth --;
+				if (depth < 0)
+					return null;
+			} else if (ch == '|' && depth == 0) {
+				return null;
+			}
+		}
+		return depth == 0 ? inner : null;
+	}
+
+	/**
+	 * Find the literal text in the line
+	 * @param line line
+	 * @param literal literal text
+	 * @return index of the literal text, -1 if not found
+	 */
+	static int indexOf(CharSequence line, String literal) {
+		if (line instanceof String)
+			return ((String)line).indexOf(literal);
+		char first = literal.charAt(0);
+		int last = line.length() - literal.length();
+		for (int i = 0; i <= last; i ++) {
+			if (line.charAt(i) != first)
+				continue;
+			int j = 1;
+			while (j < literal.length() && line.charAt(i + j) == literal.charAt(j))
+				j ++;
+			if (j == literal.length())
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Check whether the line includes line terminators which . doesn't match
+	 * @param line line
+	 * @return true: includes   false: doesn't include
+	 */
+	static boolean hasLineTerminator(CharSequence line) {
+		int len = line.length();
+		for (int i = 0; i < len; i ++) {
+			char ch = line.charAt(i);
+			if (ch == '\n' || ch == '\r' || ch == '\u0085' || ch == '\u2028' || ch == '\u2029')
+				return true;
+		}
+		return false;
 	}
 }
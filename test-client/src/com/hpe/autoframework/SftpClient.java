@@ -1,8 +1,10 @@
 package com.hpe.autoframework;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -10,12 +12,18 @@ import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Vector;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
 
 import org.testng.TestException;
 
+import com.jcraft.jsch.ChannelExec;
 import com.jcraft.jsch.ChannelSftp;
-import com.jcraft.jsch.ChannelSftp.LsEntry;
 import com.jcraft.jsch.JSch;
 import com.jcraft.jsch.JSchException;
 import com.jcraft.jsch.Session;
@@ -34,9 +42,24 @@ public class SftpClient {
 	private static final int LOG_POLLING_RETRY = 3;
 
 	/**
-	 * File download buffer size
+	 * Default file download buffer size of getFile()
 	 */
-	private static final int BUF_SIZE = 1024 * 4;
+	private static final int DEFAULT_TRANSFER_BUF_SIZE = 1024 * 256;
+	
+	/**
+	 * Default number of outstanding SFTP read requests
+	 */
+	private static final int DEFAULT_BULK_REQUESTS = 64;
+	
+	/**
+	 * Default number of SFTP channels of batch transfer
+	 */
+	private static final int DEFAULT_PARALLEL_CHANNELS = 4;
+	
+	/**
+	 * Default segment size of parallel download of large file
+	 */
+	private static final long DEFAULT_SEGMENT_SIZE = 1024L * 1024 * 64;
 	
 	/**
 	 * Log file finger-print size
@@ -46,23 +69,100 @@ public class SftpClient {
 	/**
 	 * JSch object
 	 */
-	private JSch ftps_ = new JSch();
+	private static final JSch ftps_ = new JSch();
+	
+	/**
+	 * SSH session factory
+	 */
+	private static final ConnectionPool.Factory<Session> sessionFactory_ = new ConnectionPool.Factory<Session>() {
+		public Session create(String hostname, int port, String username, String password) throws IOException {
+			try {
+				Session session = ftps_.getSession(username, hostname, port);
+				session.setPassword(password);
+				session.setConfig("StrictHostKeyChecking", "no");
+				session.connect();
+				return session;
+			} catch (JSchException exp) {
+				throw new IOException(exp.getMessage(), exp);
+			}
+		}
+
+		public boolean validate(Session session) {
+			if (!session.isConnected())
+				return false;
+			try {
+				session.sendKeepAliveMsg();
+				return true;
+			} catch (Exception exp) {
+				return false;
+			}
+		}
+
+		public void destroy(Session session) {
+			session.disconnect();
+		}
+	};
+
+	/**
+	 * SSH session pool shared by all the SFTP clients
+	 */
+	private static ConnectionPool<Session> sessionPool_;
 	
 	/**
 	 * SSH session
 	 */
 	private Session session_;
 	
+	/**
+	 * Session pool use flag, default is SftpConnectionPool configuration(false if not configured)
+	 */
+	private boolean usePool_ = "true".equalsIgnoreCase(Configure.getConfig("SftpConnectionPool"));
+	
+	/**
+	 * Flag whether the current session is borrowed from the pool
+	 */
+	private boolean pooled_ = false;
+	
 	/**
 	 * SFTP channel
 	 */
 	private ChannelSftp channel_;
 	
+	/**
+	 * Number of outstanding SFTP read requests, default is SftpBulkRequests configuration or 64
+	 */
+	private int bulkRequests_;
+	
+	/**
+	 * File download buffer size of getFile(), default is SftpBufferSize configuration or 256K
+	 */
+	private int transferBufSize_;
+	
+	/**
+	 * Number of SFTP channels of batch transfer, default is SftpParallelChannels configuration or 4
+	 */
+	private int parallelChannels_;
+	
+	/**
+	 * Segment size of parallel download, default is SftpSegmentSize configuration or 64M
+	 */
+	private long segmentSize_;
+	
 	/**
 	 * Remote SFTP server host name
 	 */
 	private String hostname_;
 	
+	/**
+	 * Remote SFTP server port
+	 */
+	private int port_;
+	
+	/**
+	 * Login user name
+	 */
+	private String username_;
+	
 	/**
 	 * Flag specifies whether down-loaded local file has host name prefix or not
 	 */
@@ -77,7 +177,14 @@ public class SftpClient {
 	 * Constructor
 	 */
 	public SftpClient() {
-		
+		int bulkrequests = Configure.getConfigAsInt("SftpBulkRequests");
+		int bufsize = Configure.getConfigAsInt("SftpBufferSize");
+		int channels = Configure.getConfigAsInt("SftpParallelChannels");
+		int segmentsize = Configure.getConfigAsInt("SftpSegmentSize");
+		bulkRequests_ = bulkrequests > 0 ? bulkrequests : DEFAULT_BULK_REQUESTS;
+		transferBufSize_ = bufsize > 0 ? bufsize : DEFAULT_TRANSFER_BUF_SIZE;
+		parallelChannels_ = channels > 0 ? channels : DEFAULT_PARALLEL_CHANNELS;
+		segmentSize_ = segmentsize > 0 ? segmentsize : DEFAULT_SEGMENT_SIZE;
 	}
 	
 	/**
@@ -96,6 +203,55 @@ public class SftpClient {
 		hostNamePrefix_ = hostNamePrefix;
 	}
 	
+	/**
+	 * Set session pool use flag.
+	 * If true, connect() borrows an authenticated SSH session from the pool shared by all the SFTP clients
+	 * and close() returns it to the pool. Only a new SFTP channel is opened on each connect().
+	 * @param usePool true: use session pool   false: connect and disconnect the session each time(default)
+	 */
+	public void setUsePool(boolean usePool) {
+		usePool_ = usePool;
+	}
+	
+	/**
+	 * Set number of outstanding SFTP read requests of download
+	 * @param bulkRequests number of outstanding read requests
+	 */
+	public void setBulkRequests(int bulkRequests) {
+		bulkRequests_ = bulkRequests;
+		if (channel_ != null) {
+			try {
+				channel_.setBulkRequests(bulkRequests_);
+			} catch (JSchException exp) {
+				throw new TestException("Set bulk requests " + bulkRequests + " failed", exp);
+			}
+		}
+	}
+	
+	/**
+	 * Set file download buffer size of getFile()
+	 * @param bufferSize buffer size in byte
+	 */
+	public void setBufferSize(int bufferSize) {
+		transferBufSize_ = bufferSize;
+	}
+	
+	/**
+	 * Set number of SFTP channels of batch transfer
+	 * @param parallelChannels number of SFTP channels opened on the session
+	 */
+	public void setParallelChannels(int parallelChannels) {
+		parallelChannels_ = parallelChannels;
+	}
+	
+	/**
+	 * Set segment size of parallel download, the file larger than the size is downloaded by segments in parallel
+	 * @param segmentSize segment size in byte
+	 */
+	public void setSegmentSize(long segmentSize) {
+		segmentSize_ = segmentSize;
+	}
+	
 	/**
 	 * Connect to remote SFTP server
 	 * @param hostname remote host name
@@ -105,57 +261,88 @@ public class SftpClient {
 	 */
 	public void connect(String hostname, int port, String username, String password) {
 		hostname_ = hostname;
+		port_ = port;
+		username_ = username;
 		
 		try {
-			session_ = ftps_.getSession(username, hostname_, port);
-			session_.setPassword(password);
-			session_.setConfig("StrictHostKeyChecking", "no");
-			session_.connect();
-			channel_ = (ChannelSftp)session_.openChannel("sftp");
-			channel_.connect();
-		} catch (JSchException exp) {
-			close();
+			session_ = null;
+			if (usePool_)
+				session_ = getSessionPool().borrow(hostname_, port, username, password);
+			// the pool is full, connect without it
+			pooled_ = session_ != null;
+			if (session_ == null)
+				session_ = sessionFactory_.create(hostname_, port, username, password);
+			try {
+				channel_ = (ChannelSftp)session_.openChannel("sftp");
+				channel_.connect();
+			} catch (JSchException exp) {
+				if (!pooled_)
+					throw exp;
+				// the keep alive message of the validation doesn't wait for the reply,
+				// the pooled session dropped silently is found here, connect again once without the pool
+				closeChannel();
+				closeSession(true);
+				session_ = sessionFactory_.create(hostname_, port, username, password);
+				channel_ = (ChannelSftp)session_.openChannel("sftp");
+				channel_.connect();
+			}
+			channel_.setBulkRequests(bulkRequests_);
+		} catch (JSchException | IOException exp) {
+			closeChannel();
+			closeSession(true);
 			throw new TestException("Sftp connection(" + hostname + "," + port + "," + username + "," + password + ") failed", exp);
 		}
 	}
 	
 	/**
-	 * Download specified file from remote host
+	 * Download specified file from remote host.
+	 * Multiple SFTP read requests are kept outstanding(see setBulkRequests()),
+	 * the data is written to the local file by positional writes of file channel.
 	 * @param filename file to download
+	 * @return transfer result including throughput
 	 */
-	public void getFile(String filename) {
-		byte[] buf = new byte[BUF_SIZE];
-		int byteread;
-		OutputStream out = null;
-		InputStream in = null;
-		try {
-			in = channel_.get(filename);
-			out = Files.newOutputStream(getLocalFilePath(filename), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-			
-			byteread = in.read(buf, 0, buf.length);
-			while (byteread >= 0) {
-				if (byteread > 0)
-					out.write(buf, 0, byteread);
-				byteread = in.read(buf, 0, buf.length);
-			}
+	public TransferResult getFile(String filename) {
+		long start = System.nanoTime();
+		Path localpath = getLocalFilePath(filename);
+		try (FileChannel out = FileChannel.open(localpath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			long bytes = download(channel_, filename, 0L, -1L, out, new byte[transferBufSize_]);
+			return new TransferResult(filename, localpath, bytes, System.nanoTime() - start);
 		} catch (SftpException exp) {
 			throw new TestException("Get file" + filename + " failed", exp);
 		} catch (IOException exp) {
 			throw new TestException("Get file" + filename + " failed", exp);
-		} finally {
-			try {
-				if (in != null)
-					in.close();
-			} catch (IOException exp) {
-				// ignore
-			}
-			try {
-				if (out != null)
-					out.close();
-			} catch (IOException exp) {
-				// ignore
+		}
+	}
+	
+	/**
+	 * Download the range of remote file into the same position of local file
+	 * @param channel SFTP channel
+	 * @param filename remote file name
+	 * @param offset start offset of the range
+	 * @param length length of the range, -1 to the end of file
+	 * @param out local file channel
+	 * @param buf download buffer
+	 * @return downloaded bytes
+	 * @throws SftpException throw when SFTP error happens
+	 * @throws IOException throw when I/O error happens
+	 */
+	private long download(ChannelSftp channel, String filename, long offset, long length, FileChannel out, byte[] buf) throws SftpException, IOException {
+		long total = 0L;
+		try (InputStream in = channel.get(filename, null, offset)) {
+			ByteBuffer bb = ByteBuffer.wrap(buf);
+			while (length < 0L || total < length) {
+				int size = length < 0L ? buf.length : (int)Math.min(buf.length, length - total);
+				int byteread = in.read(buf, 0, size);
+				if (byteread < 0)
+					break;
+				bb.clear().limit(byteread);
+				while (bb.hasRemaining()) {
+					out.write(bb, offset + total + bb.position());
+				}
+				total += byteread;
 			}
 		}
+		return total;
 	}
 
 	/**
@@ -182,18 +369,296 @@ public class SftpClient {
 		}
 	}
 
+	/**
+	 * Download files from remote host concurrently by multiple SFTP channels of the session.
+	 * The file larger than the segment size is split into byte ranges downloaded in parallel.
+	 * The failure of a file doesn't stop the other files.
+	 * @param filenames files to download
+	 * @return transfer results in order of the files
+	 */
+	public List<TransferResult> getFiles(List<String> filenames) {
+		List<Transfer> transfers = new ArrayList<Transfer>();
+		final BlockingQueue<ChannelSftp> channels = openChannels(Math.min(parallelChannels_, filenames.size()));
+		ExecutorService executor = newTransferExecutor(channels.size());
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (final String filename : filenames) {
+				final Transfer transfer = new Transfer(filename, getLocalFilePath(filename));
+				transfers.add(transfer);
+				long size;
+				try {
+					size = channel_.stat(filename).getSize();
+					transfer.out_ = FileChannel.open(transfer.localPath_, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+				} catch (SftpException | IOException exp) {
+					transfer.fail(exp);
+					continue;
+				}
+				long offset = 0L;
+				do {
+					final long segoffset = offset;
+					// the last segment is read to the end of file in case the file grows
+					final long seglength = (size - offset > segmentSize_) ? segmentSize_ : -1L;
+					futures.add(executor.submit(new Runnable() {
+						public void run() {
+							ChannelSftp channel = takeChannel(channels);
+							transfer.start();
+							try {
+								transfer.done(download(channel, filename, segoffset, seglength, transfer.out_, new byte[transferBufSize_]));
+							} catch (SftpException | IOException | RuntimeException exp) {
+								transfer.fail(exp);
+							} finally {
+								channels.add(channel);
+							}
+						}
+					}));
+					offset += segmentSize_;
+				} while (offset < size);
+			}
+			awaitTransfers(futures);
+		} finally {
+			executor.shutdownNow();
+			closeChannels(channels);
+		}
+		
+		List<TransferResult> results = new ArrayList<TransferResult>();
+		for (Transfer transfer : transfers) {
+			results.add(transfer.close());
+		}
+		return results;
+	}
+	
+	/**
+	 * Upload files to remote host concurrently by multiple SFTP channels of the session.
+	 * The failure of a file doesn't stop the other files.
+	 * @param localfilenames local files to upload
+	 * @param remotefilenames remote files to be generated, in order of the local files
+	 * @return transfer results in order of the files
+	 */
+	public List<TransferResult> putFiles(List<String> localfilenames, final List<String> remotefilenames) {
+		assert localfilenames.size() == remotefilenames.size() : "number of local files and remote files are different";
+		List<Transfer> transfers = new ArrayList<Transfer>();
+		final BlockingQueue<ChannelSftp> channels = openChannels(Math.min(parallelChannels_, localfilenames.size()));
+		ExecutorService executor = newTransferExecutor(channels.size());
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int i = 0; i < localfilenames.size(); i ++) {
+				final String remotefilename = remotefilenames.get(i);
+				final Transfer transfer = new Transfer(remotefilename, FileSystems.getDefault().getPath(localfilenames.get(i)));
+				transfers.add(transfer);
+				futures.add(executor.submit(new Runnable() {
+					public void run() {
+						ChannelSftp channel = takeChannel(channels);
+						transfer.start();
+						try (InputStream in = Files.newInputStream(transfer.localPath_, StandardOpenOption.READ)) {
+							channel.put(in, remotefilename);
+							transfer.done(Files.size(transfer.localPath_));
+						} catch (SftpException | IOException | RuntimeException exp) {
+							transfer.fail(exp);
+						} finally {
+							channels.add(channel);
+						}
+					}
+				}));
+			}
+			awaitTransfers(futures);
+		} finally {
+			executor.shutdownNow();
+			closeChannels(channels);
+		}
+		
+		List<TransferResult> results = new ArrayList<TransferResult>();
+		for (Transfer transfer : transfers) {
+			results.add(transfer.close());
+		}
+		return results;
+	}
+	
+	/**
+	 * Open SFTP channels on the session for batch transfer
+	 * @param count number of channels to open
+	 * @return opened channels, at least one
+	 */
+	private BlockingQueue<ChannelSftp> openChannels(int count) {
+		BlockingQueue<ChannelSftp> channels = new LinkedBlockingQueue<ChannelSftp>();
+		JSchException error = null;
+		for (int i = 0; i < Math.max(1, count); i ++) {
+			try {
+				ChannelSftp channel = (ChannelSftp)session_.openChannel("sftp");
+				channel.connect();
+				channel.setBulkRequests(bulkRequests_);
+				channels.add(channel);
+			} catch (JSchException exp) {
+				// the server may limit the number of sessions, use the opened channels
+				error = exp;
+				break;
+			}
+		}
+		if (channels.isEmpty())
+			throw new TestException("Open sftp channel failed", error);
+		return channels;
+	}
+	
+	/**
+	 * Close SFTP channels of batch transfer
+	 * @param channels channels to close
+	 */
+	private void closeChannels(BlockingQueue<ChannelSftp> channels) {
+		for (ChannelSftp channel : channels) {
+			channel.disconnect();
+		}
+	}
+	
+	/**
+	 * Take an idle SFTP channel
+	 * @param channels idle channels
+	 * @return SFTP channel
+	 */
+	private ChannelSftp takeChannel(BlockingQueue<ChannelSftp> channels) {
+		try {
+			return channels.take();
+		} catch (InterruptedException exp) {
+			throw new TestException("Sftp transfer interrupted", exp);
+		}
+	}
+	
+	/**
+	 * Create thread pool of batch transfer
+	 * @param threads number of threads
+	 * @return thread pool
+	 */
+	private ExecutorService newTransferExecutor(int threads) {
+		return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "SftpTransfer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+	
+	/**
+	 * Wait for all the transfers
+	 * @param futures futures of transfers
+	 */
+	private void awaitTransfers(List<Future<?>> futures) {
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (ExecutionException exp) {
+				// failure is recorded in the transfer
+			} catch (InterruptedException exp) {
+				throw new TestException("Sftp transfer interrupted", exp);
+			}
+		}
+	}
+	
+	/**
+	 * Progress of one file in batch transfer
+	 */
+	private class Transfer {
+		String filename_;
+		Path localPath_;
+		FileChannel out_;
+		long bytes_ = 0L;
+		long start_ = 0L;
+		long end_ = 0L;
+		Throwable exception_;
+
+		Transfer(String filename, Path localPath) {
+			filename_ = filename;
+			localPath_ = localPath;
+		}
+
+		/**
+		 * A segment starts
+		 */
+		synchronized void start() {
+			if (start_ == 0L)
+				start_ = System.nanoTime();
+		}
+
+		/**
+		 * A segment is transferred
+		 * @param bytes transferred bytes
+		 */
+		synchronized void done(long bytes) {
+			bytes_ += bytes;
+			end_ = System.nanoTime();
+		}
+
+		/**
+		 * A segment failed
+		 * @param exp exception of the failure
+		 */
+		synchronized void fail(Throwable exp) {
+			if (exception_ == null)
+				exception_ = exp;
+			end_ = System.nanoTime();
+		}
+
+		/**
+		 * Close local file and create the result
+		 * @return transfer result
+		 */
+		synchronized TransferResult close() {
+			if (out_ != null) {
+				try {
+					out_.close();
+				} catch (IOException exp) {
+					if (exception_ == null)
+						exception_ = exp;
+				}
+			}
+			long elapsed = start_ == 0L ? 0L : end_ - start_;
+			if (exception_ != null)
+				return new TransferResult(filename_, localPath_, bytes_, elapsed, exception_);
+			return new TransferResult(filename_, localPath_, bytes_, elapsed);
+		}
+	}
+	
 	/**
 	 * Close SFTP connection to remote host
 	 */
 	public void close() {
+		closeChannel();
+		closeSession(false);
+	}
+	
+	/**
+	 * Get SSH session pool, it's created at the first use
+	 * @return SSH session pool
+	 */
+	private static synchronized ConnectionPool<Session> getSessionPool() {
+		if (sessionPool_ == null)
+			sessionPool_ = new ConnectionPool<Session>("Sftp", sessionFactory_);
+		return sessionPool_;
+	}
+	
+	/**
+	 * Close SFTP channel
+	 */
+	private void closeChannel() {
 		if (channel_ != null) {
-			channel_.disconnect();;
+			channel_.disconnect();
 			channel_ = null;
 		}
-		if (session_ != null) {
-			session_.disconnect();;
-			session_ = null;
-		}
+	}
+	
+	/**
+	 * Return the SSH session to the pool or disconnect it
+	 * @param broken true if the session may be broken, it's not returned to the pool
+	 */
+	private void closeSession(boolean broken) {
+		if (session_ == null)
+			return;
+		if (!pooled_)
+			session_.disconnect();
+		else if (broken || !session_.isConnected())
+			getSessionPool().invalidate(session_);
+		else
+			getSessionPool().release(session_);
+		session_ = null;
+		pooled_ = false;
 	}
 	
 	/**
@@ -224,7 +689,7 @@ public class SftpClient {
 	
 	/**
 	 * Get the information of the specified log file.
-	 * The information includes the size and finger-print of the log file.
+	 * The information includes the size, head checksum and finger-print of the log file.
 	 * @param filename log file name
 	 * @param pattern rotated log file name matching pattern in regular expression
 	 *        the default pattern is logfilename.*
@@ -241,60 +706,37 @@ public class SftpClient {
 		
 		int retrytimes = 0;
 		for (;;) {
-			int byteread;
-			InputStream in = null;
 			try {
 				// get file size
 				SftpATTRS attrs = channel_.stat(loginfo.getFilename());
-				loginfo.setSize_(attrs.getSize());
-				int size;
-				if (attrs.getSize() < FINGER_PRINT_SIZE)
-					size = (int)attrs.getSize();
-				else
-					size = FINGER_PRINT_SIZE;
-				byte[] buf = new byte[size];
-				long fileoff = attrs.getSize() - size;
+				long filesize = attrs.getSize();
+				int size = (int)Math.min(filesize, FINGER_PRINT_SIZE);
+				long fileoff = filesize - size;
+				
+				// head checksum
+				byte[] head = readAt(loginfo.getFilename(), 0L, (int)Math.min(filesize, LogInfo.HEAD_SIZE));
+				loginfo.resetCheckpoint();
+				loginfo.advance(head, 0, head.length, FINGER_PRINT_SIZE);
+				
+				// finger print of the tail
+				byte[] buf = fileoff == 0L ? Arrays.copyOf(head, size) : readAt(loginfo.getFilename(), fileoff, size);
+				loginfo.setSize_(fileoff + buf.length);
 				loginfo.setFingerPrintOffset(fileoff);
-	
-					try {
-						in = channel_.get(loginfo.getFilename(), null, fileoff);
-					} catch (SftpException exp) {
-						throw exp;
-					}
-					
-				// read finger print
-				int index = 0;
-				byteread = in.read(buf, index, buf.length - index);
-				while (byteread >= 0) {
-					index += byteread;
-					if (index >= buf.length) {
-						break;
-					}
-					byteread = in.read(buf, index, buf.length - index);
-				}
 				loginfo.setFingerPrint(buf);
+				loginfo.setModifiedTime(attrs.getMTime());
 			} catch (SftpException exp) {
 				// if log file not found, it might be rotated, retry
-				if (exp instanceof SftpException) {
-					if (exp.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
-						// retry over max
-						if (retrytimes < LOG_POLLING_RETRY) {
-							retrytimes ++;
-							Util.sleep(1);
-							continue;
-						}
+				if (exp.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+					// retry over max
+					if (retrytimes < LOG_POLLING_RETRY) {
+						retrytimes ++;
+						Util.sleep(1);
+						continue;
 					}
 				}
 				throw new TestException("Get file" + loginfo.getFilename() + " failed", exp);
 			} catch (IOException exp) {
 				throw new TestException("Get file" + loginfo.getFilename() + " failed", exp);
-			} finally {
-				try {
-					if (in != null)
-						in.close();
-				} catch (IOException exp) {
-					// ignore
-				}
 			}
 			break;
 		}
@@ -302,130 +744,308 @@ public class SftpClient {
 	}
 	
 	/**
-	 * Download the diff part of the log file between the invocation of getLoginfo() and getLogFile().
+	 * Capture the part of the log file appended after the invocation of getLoginfo() or the last getLogFile().
+	 * Only the new byte ranges are downloaded and appended to the local log file, across rotations.
+	 * The checkpoint in LogInfo advances as the data is appended,
+	 * so the next invocation resumes from where an interrupted download stopped.
+	 * The index set to LogInfo is updated with the appended lines.
 	 * @param loginfo information of the specified log file
 	 */
-	@SuppressWarnings("rawtypes")
 	public void getLogFile(LogInfo loginfo) {
-		if (!tryGetLogFile(loginfo, null)) {
-			// get current log file
-			getFile(loginfo.getFilename());
-			
-			// get rotated log file
-			String dirname = loginfo.getDirname();
-			if (dirname != null) {
-				List<LsEntry> sortedlist = new ArrayList<LsEntry>();
-				try {
-					Vector dirs = channel_.ls(dirname);
-					LsEntry dir;
-					for (int i = 0; i < dirs.size(); i ++) {
-						dir = (LsEntry)dirs.get(i);
-						if (loginfo.getFilenamePattern().matcher(dirname + "/" + dir.getFilename()).matches() && !loginfo.getFilename().equals(dirname + "/" + dir.getFilename())) {
-							addFilename(dir, sortedlist);
-						}
-					}
-				} catch (SftpException exp) {
-					throw new TestException("List directory" + dirname + " failed", exp);
-				}
-				
-				for (LsEntry dir : sortedlist) {
-					String filename = dirname + "/" + dir.getFilename();
-					if (tryGetLogFile(loginfo, filename)) {
+		Path localpath = FileSystems.getDefault().getPath(loginfo.getLocalFilename());
+		try (FileChannel out = FileChannel.open(localpath, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+			if (loginfo.getLocalSize() < 0L || out.size() < loginfo.getLocalSize())
+				loginfo.setLocalSize(0L);
+			// discard the data not recorded in the checkpoint
+			out.truncate(loginfo.getLocalSize());
+			captureLog(loginfo, out);
+		} catch (SftpException exp) {
+			throw new TestException("Get file" + loginfo.getFilename() + " failed", exp);
+		} catch (IOException exp) {
+			throw new TestException("Get file" + loginfo.getFilename() + " failed", exp);
+		}
+		if (loginfo.getIndex() != null)
+			loginfo.getIndex().update();
+	}
+	
+	/**
+	 * Find the log file holding the checkpoint and append the new data of it
+	 * and the newer rotated log files in order.
+	 * The rotated log files are resolved from the cached directory index,
+	 * only the files modified after the checkpoint are checked.
+	 * @param loginfo information of the specified log file
+	 * @param out local log file
+	 * @throws SftpException throw when SFTP error happens
+	 * @throws IOException throw when I/O error happens
+	 */
+	private void captureLog(LogInfo loginfo, FileChannel out) throws SftpException, IOException {
+		String current = loginfo.getFilename();
+		SftpATTRS attrs = statIfExists(current);
+		if (attrs != null && holdsCheckpoint(loginfo, current, attrs.getSize())) {
+			appendLog(loginfo, current, attrs.getMTime(), out);
+			return;
+		}
+		
+		// rotated, find the rotated log file holding the checkpoint from the newest
+		List<LogDirIndex.Entry> newer = new ArrayList<LogDirIndex.Entry>();
+		String dirname = loginfo.getDirname();
+		if (dirname != null) {
+			LogDirIndex index = LogDirIndex.getIndex(username_, hostname_, port_, dirname, loginfo.getFilenamePattern());
+			int now = attrs != null ? attrs.getMTime() : -1;
+			for (int retry = 0; retry < 2; retry ++) {
+				LogDirIndex.Entry holder = null;
+				newer.clear();
+				for (LogDirIndex.Entry entry : index.getCandidates(channel_, current, loginfo.getModifiedTime(), now)) {
+					if (holdsCheckpoint(loginfo, entry.getFilename(), entry.getSize())) {
+						holder = entry;
 						break;
-					} else {
-						getFile(filename);
 					}
+					newer.add(entry);
 				}
+				if (holder != null) {
+					appendLog(loginfo, holder.getFilename(), holder.getMTime(), out);
+					break;
+				}
+				// the cached entries may be stale, list the directory again
+				index.invalidate();
 			}
 		}
+		
+		// the newer rotated log files and the current log file are appended from the beginning
+		for (int i = newer.size() - 1; i >= 0; i --) {
+			loginfo.resetCheckpoint();
+			appendLog(loginfo, newer.get(i).getFilename(), newer.get(i).getMTime(), out);
+		}
+		loginfo.resetCheckpoint();
+		if (attrs != null)
+			appendLog(loginfo, current, attrs.getMTime(), out);
 	}
 	
 	/**
-	 * Add the file name entry to the sorted list in order of modified time
-	 * @param dir file name entry to add
-	 * @param sortedlist sorted list in order of modified time
+	 * Check whether the log file holds the checkpoint by its size, finger-print and head checksum
+	 * @param loginfo information of the specified log file
+	 * @param filename log file name to check
+	 * @param size size of the log file
+	 * @return true: holds the checkpoint   false: doesn't hold
+	 * @throws SftpException throw when SFTP error happens
+	 * @throws IOException throw when I/O error happens
 	 */
-	private void addFilename(LsEntry dir, List<LsEntry> sortedlist) {
-		LsEntry dirEntry;
-		int size = sortedlist.size();
-		for (int i = 0; i < size; i ++) {
-			dirEntry = sortedlist.get(i);
-			if (dir.getAttrs().getMTime() >= dirEntry.getAttrs().getMTime()) {
-				sortedlist.add(i, dir);
-				return;
-			}
+	private boolean holdsCheckpoint(LogInfo loginfo, String filename, long size) throws SftpException, IOException {
+		if (LogStreams.compressionOf(filename) != LogStreams.NONE)
+			return compressedHoldsCheckpoint(loginfo, filename);
+		if (size < loginfo.getSize()) {
+			// log file got smaller, it must be rotated
+			return false;
+		}
+		byte[] fingerprint = loginfo.getFingerPrint();
+		if (fingerprint != null && fingerprint.length > 0) {
+			if (!loginfo.matchesFingerPrint(readAt(filename, loginfo.getFingerPrintOffset(), fingerprint.length)))
+				return false;
+		}
+		if (loginfo.getHeadSize() > 0 && loginfo.getFingerPrintOffset() > 0L) {
+			// finger-print doesn't cover the head, check the head checksum too
+			if (!loginfo.matchesHead(readAt(filename, 0L, loginfo.getHeadSize())))
+				return false;
 		}
-		sortedlist.add(dir);
+		return true;
 	}
 	
 	/**
-	 * Try to download the rotated log file.
-	 * Check the size and finger-print to judge whether it's the rotated log file.
+	 * Check whether the compressed log file holds the checkpoint by its finger-print and head checksum.
+	 * The decompressed data is read from the beginning to the end of the finger-print.
 	 * @param loginfo information of the specified log file
-	 * @param filename rotated log file name
-	 * @return true:found the rotated log file  false:not found
+	 * @param filename compressed log file name to check
+	 * @return true: holds the checkpoint   false: doesn't hold
+	 * @throws SftpException throw when SFTP error happens
+	 * @throws IOException throw when I/O error happens
 	 */
-	private boolean tryGetLogFile(LogInfo loginfo, String filename) {
-		String filenm = filename == null ? loginfo.getFilename() : filename;
-		
-		int byteread;
-		OutputStream out = null;
-		InputStream in = null;
-		byte[] buf = new byte[BUF_SIZE];
-		try {
-			// get file size
-			SftpATTRS attrs = channel_.stat(filenm);
-			if (attrs.getSize() < loginfo.getSize()) {
-				// log file got smaller, it must be rotated
+	private boolean compressedHoldsCheckpoint(LogInfo loginfo, String filename) throws SftpException, IOException {
+		byte[] fingerprint = loginfo.getFingerPrint();
+		int fplen = fingerprint == null ? 0 : fingerprint.length;
+		long fpoffset = loginfo.getFingerPrintOffset();
+		try (InputStream in = openLogStream(filename, 0L)) {
+			byte[] head = LogStreams.readFully(in, loginfo.getHeadSize());
+			if (loginfo.getHeadSize() > 0 && fpoffset > 0L && !loginfo.matchesHead(head))
 				return false;
+			if (fplen == 0)
+				return true;
+			if (fpoffset >= head.length) {
+				if (LogStreams.skipFully(in, fpoffset - head.length) < fpoffset - head.length)
+					return false;
+				return loginfo.matchesFingerPrint(LogStreams.readFully(in, fplen));
 			}
-			
-			int size = loginfo.getFingerPrint().length;
-			
-			in = channel_.get(filenm, null, loginfo.getFingerPrintOffset());
-
-			// read finger print
-			int index = 0;
-			byteread = in.read(buf, index, size - index);
+			// finger-print overlaps the head
+			byte[] rest = LogStreams.readFully(in, (int)(fpoffset + fplen - head.length));
+			byte[] data = Arrays.copyOf(head, head.length + rest.length);
+			System.arraycopy(rest, 0, data, head.length, rest.length);
+			return loginfo.matchesFingerPrint(Arrays.copyOfRange(data, (int)fpoffset, data.length));
+		}
+	}
+	
+	/**
+	 * Append the data of the log file after the checkpoint to the local log file
+	 * @param loginfo information of the specified log file
+	 * @param filename log file name
+	 * @param mtime modified time of the log file in second
+	 * @param out local log file
+	 * @throws SftpException throw when SFTP error happens
+	 * @throws IOException throw when I/O error happens
+	 */
+	private void appendLog(LogInfo loginfo, String filename, int mtime, FileChannel out) throws SftpException, IOException {
+		loginfo.setModifiedTime(mtime);
+		byte[] buf = new byte[transferBufSize_];
+		ByteBuffer bb = ByteBuffer.wrap(buf);
+		try (InputStream in = openLogStream(filename, loginfo.getSize())) {
+			int byteread = in.read(buf, 0, buf.length);
 			while (byteread >= 0) {
-				index += byteread;
-				if (index >= size) {
-					break;
+				if (byteread > 0) {
+					bb.clear().limit(byteread);
+					while (bb.hasRemaining()) {
+						out.write(bb, loginfo.getLocalSize() + bb.position());
+					}
+					loginfo.setLocalSize(loginfo.getLocalSize() + byteread);
+					loginfo.advance(buf, 0, byteread, FINGER_PRINT_SIZE);
 				}
-				byteread = in.read(buf, index, size - index);
+				byteread = in.read(buf, 0, buf.length);
 			}
-			if (index < size) {
-				// failed in getting the whole finger print, file must be rotated
-				return false;
+		}
+	}
+	
+	/**
+	 * Open the remote log file, the log file compressed by the log rotation is decompressed on the fly.
+	 * gzip is decompressed while it's downloaded, zstd is decompressed by zstd command on the remote host.
+	 * @param filename remote log file name
+	 * @return decompressed stream
+	 */
+	public InputStream openLogStream(String filename) {
+		try {
+			return openLogStream(filename, 0L);
+		} catch (SftpException exp) {
+			throw new TestException("Get file" + filename + " failed", exp);
+		} catch (IOException exp) {
+			throw new TestException("Get file" + filename + " failed", exp);
+		}
+	}
+	
+	/**
+	 * Open the remote log file from the offset of the decompressed data
+	 * @param filename remote log file name
+	 * @param offset offset of the decompressed data
+	 * @return decompressed stream
+	 * @throws SftpException throw when SFTP error happens
+	 * @throws IOException throw when I/O error happens
+	 */
+	private InputStream openLogStream(String filename, long offset) throws SftpException, IOException {
+		int compression = LogStreams.compressionOf(filename);
+		if (compression == LogStreams.NONE)
+			return channel_.get(filename, null, offset);
+		InputStream in;
+		if (compression == LogStreams.ZSTD)
+			in = execStream("zstd -dcq -- '" + filename.replace("'", "'\\''") + "'");
+		else
+			in = LogStreams.decompress(channel_.get(filename), compression);
+		try {
+			LogStreams.skipFully(in, offset);
+		} catch (IOException exp) {
+			in.close();
+			throw exp;
+		}
+		return in;
+	}
+	
+	/**
+	 * Execute the command on the remote host and get its standard output
+	 * @param command command to execute
+	 * @return standard output, closing it closes the channel
+	 * @throws IOException throw when the command can't be executed or fails
+	 */
+	private InputStream execStream(String command) throws IOException {
+		final ChannelExec channel;
+		InputStream in;
+		try {
+			channel = (ChannelExec)session_.openChannel("exec");
+			channel.setCommand(command);
+			channel.setInputStream(null);
+			in = channel.getInputStream();
+			channel.connect();
+		} catch (JSchException exp) {
+			throw new IOException("Command " + command + " failed", exp);
+		}
+		final String cmd = command;
+		return new FilterInputStream(in) {
+			public int read(byte[] b, int off, int len) throws IOException {
+				int num = super.read(b, off, len);
+				if (num < 0)
+					checkExit();
+				return num;
 			}
-			if (!Arrays.equals(loginfo.getFingerPrint(), Arrays.copyOf(buf, loginfo.getFingerPrint().length))) {
-				// finger print not match, file must be rotated
-				return false;
+			
+			public int read() throws IOException {
+				int num = super.read();
+				if (num < 0)
+					checkExit();
+				return num;
 			}
 			
-			// get the appended part of log file
-			out = Files.newOutputStream(getLocalFilePath(filenm), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-			byteread = in.read(buf, 0, buf.length);
-			while (byteread >= 0) {
-				if (byteread > 0)
-					out.write(buf, 0, byteread);
-				byteread = in.read(buf, 0, buf.length);
+			private void checkExit() throws IOException {
+				// exit status arrives just after the end of stream
+				try {
+					while (!channel.isClosed())
+						Thread.sleep(10);
+				} catch (InterruptedException exp) {
+					throw new IOException("Command " + cmd + " interrupted", exp);
+				}
+				if (channel.getExitStatus() != 0)
+					throw new IOException("Command " + cmd + " failed with exit code " + channel.getExitStatus());
 			}
+			
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					channel.disconnect();
+				}
+			}
+		};
+	}
+	
+	/**
+	 * Get the attributes of the file
+	 * @param filename file name
+	 * @return attributes, null if the file doesn't exist
+	 * @throws SftpException throw when SFTP error happens
+	 */
+	private SftpATTRS statIfExists(String filename) throws SftpException {
+		try {
+			return channel_.stat(filename);
 		} catch (SftpException exp) {
-			throw new TestException("Get file" + filenm + " failed", exp);
-		} catch (IOException exp) {
-			throw new TestException("Get file" + filenm + " failed", exp);
-		} finally {
-			try {
-				if (in != null)
-					in.close();
-				if (out != null)
-					out.close();
-			} catch (IOException exp) {
-				// ignore
+			if (exp.id == ChannelSftp.SSH_FX_NO_SUCH_FILE)
+				return null;
+			throw exp;
+		}
+	}
+	
+	/**
+	 * Read the data of the remote file at the offset
+	 * @param filename remote file name
+	 * @param offset offset to read from
+	 * @param len length to read
+	 * @return data read, shorter than the length if the file ends
+	 * @throws SftpException throw when SFTP error happens
+	 * @throws IOException throw when I/O error happens
+	 */
+	private byte[] readAt(String filename, long offset, int len) throws SftpException, IOException {
+		byte[] buf = new byte[len];
+		int index = 0;
+		try (InputStream in = channel_.get(filename, null, offset)) {
+			while (index < len) {
+				int byteread = in.read(buf, index, len - index);
+				if (byteread < 0)
+					break;
+				index += byteread;
 			}
 		}
-		return true;
+		return index < len ? Arrays.copyOf(buf, index) : buf;
 	}
 	
 	/**
@@ -1,31 +1,40 @@
 package com.hpe.autoframework;
 
 
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.IllegalCharsetNameException;
 import java.nio.charset.StandardCharsets;
 import java.nio.charset.UnsupportedCharsetException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.MatchResult;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.testng.TestException;
 
+import ch.ethz.ssh2.ChannelCondition;
 import ch.ethz.ssh2.Connection;
 import ch.ethz.ssh2.Session;
 
@@ -55,12 +64,146 @@ public class SshClient {
 	 * Default terminal height
 	 */
 	private static final int DEFAULT_HEIGHT = 45;
+	
+	/**
+	 * Pattern flag of prompt
+	 */
+	private static final int PROMPT_FLAG = 1;
+	
+	/**
+	 * Pattern flag of wait text
+	 */
+	private static final int WAIT_TEXT_FLAG = 2;
+	
+	/**
+	 * Max number of characters buffered in streaming mode
+	 */
+	private static final int STREAM_BUF_SIZE = 1024 * 1024;
+	
+	/**
+	 * Exec channel receiving buffer size
+	 */
+	private static final int EXEC_BUF_SIZE = 1024 * 16;
+	
+	/**
+	 * Default max number of sessions per connection of SSH server(MaxSessions of OpenSSH)
+	 */
+	private static final int DEFAULT_MAX_SESSIONS = 10;
+
+	/**
+	 * Received text window size for expect patterns in character
+	 */
+	private static final int EXPECT_WINDOW_SIZE = 1024 * 64;
+
+	/**
+	 * Default idle gap to detect the remote side is ready in millisecond
+	 */
+	private static final long DEFAULT_READY_GAP = 100L;
+
+	/**
+	 * Default max wait time for the remote side to be ready in millisecond
+	 */
+	private static final long DEFAULT_READY_TIMEOUT = 1000L;
+
+	/**
+	 * Max wait time for the running exec channels to finish at close in millisecond
+	 */
+	private static final long CHANNEL_CLOSE_WAIT = 1000L;
+
+	/**
+	 * Default time out of the TCP connection in millisecond
+	 */
+	private static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+
+	/**
+	 * Default time out of the key exchange in millisecond
+	 */
+	private static final int DEFAULT_KEX_TIMEOUT = 30000;
+
+	/**
+	 * Default time out of the ping to check the pooled connection in millisecond
+	 */
+	private static final int DEFAULT_PING_TIMEOUT = 5000;
+
+	/**
+	 * Threads running the ping of the pooled connection, created at the first use
+	 */
+	private static ExecutorService pingExecutor_;
+
+	/**
+	 * SSH connection factory
+	 */
+	private static final ConnectionPool.Factory<Connection> connFactory_ = new ConnectionPool.Factory<Connection>() {
+		public Connection create(String hostname, int port, String username, String password) throws IOException {
+			int connectTimeout = Configure.getConfigAsInt("SshConnectTimeout");
+			int kexTimeout = Configure.getConfigAsInt("SshKexTimeout");
+			Connection conn = new Connection(hostname, port);
+			try {
+				conn.connect(null, connectTimeout > 0 ? connectTimeout : DEFAULT_CONNECT_TIMEOUT, kexTimeout > 0 ? kexTimeout : DEFAULT_KEX_TIMEOUT);
+				boolean isAuthenticated = conn.authenticateWithPassword(username, password);
+				if (isAuthenticated == false)
+					throw new TestException("Authentication failed.");
+			} catch (IOException | RuntimeException exp) {
+				conn.close();
+				throw exp;
+			}
+			return conn;
+		}
+
+		public boolean validate(final Connection conn) {
+			// ping blocks for ever on the half-dead TCP connection, it's bounded by SshPingTimeout(millisecond)
+			int timeout = Configure.getConfigAsInt("SshPingTimeout");
+			Future<Void> ping = getPingExecutor().submit(new Callable<Void>() {
+				public Void call() throws IOException {
+					conn.ping();
+					return null;
+				}
+			});
+			try {
+				ping.get(timeout > 0 ? timeout : DEFAULT_PING_TIMEOUT, TimeUnit.MILLISECONDS);
+				return true;
+			} catch (TimeoutException exp) {
+				// closing the connection wakes up the ping
+				conn.close();
+				return false;
+			} catch (ExecutionException exp) {
+				return false;
+			} catch (InterruptedException exp) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+
+		public void destroy(Connection conn) {
+			conn.close();
+		}
+	};
+
+	/**
+	 * SSH connection pool shared by all the SSH clients
+	 */
+	private static ConnectionPool<Connection> connPool_;
 
 	/**
 	 * SSH connection
 	 */
 	private Connection conn_= null;
 	
+	/**
+	 * Aborted flag, the connection is closed by abort()
+	 */
+	private boolean aborted_ = false;
+	
+	/**
+	 * Connection pool use flag, default is SshConnectionPool configuration(false if not configured)
+	 */
+	private boolean usePool_ = "true".equalsIgnoreCase(Configure.getConfig("SshConnectionPool"));
+	
+	/**
+	 * Flag whether the current connection is borrowed from the pool
+	 */
+	private boolean pooled_ = false;
+	
 	/**
 	 * SSH session
 	 */
@@ -81,6 +224,16 @@ public class SshClient {
 	 */
 	private boolean logenabled_;
 	
+	/**
+	 * Terminal log file name in evidence directory, default is TermLogFilename configuration
+	 */
+	private String termLogFilename_ = Configure.getConfig("TermLogFilename");
+	
+	/**
+	 * Terminal log writer
+	 */
+	private TermLogWriter termLog_;
+	
 	/**
 	 * Response data receiving thread
 	 */
@@ -91,6 +244,11 @@ public class SshClient {
 	 */
 	private Pattern exitCodePattern_ = Pattern.compile("\\[\\[(\\d+)\\]\\]\n$");
 	
+	/**
+	 * Match result of the last expect()
+	 */
+	private MatchResult lastMatch_;
+	
 	/**
 	 * Command output list
 	 */
@@ -125,13 +283,49 @@ public class SshClient {
 	 * Terminal height
 	 */
 	private int height_ = DEFAULT_HEIGHT;
+	
+	/**
+	 * Idle gap to detect the remote side is ready in nanosecond
+	 */
+	private long readyGap_ = getMillisConfigAsNanos("SshReadyGap", DEFAULT_READY_GAP);
+	
+	/**
+	 * Max wait time for the remote side to be ready in nanosecond
+	 */
+	private long readyTimeout_ = getMillisConfigAsNanos("SshReadyTimeout", DEFAULT_READY_TIMEOUT);
+	
+	/**
+	 * Shared reader mode flag, default is SshSharedReader configuration
+	 */
+	private boolean sharedReader_ = Configure.getConfigAsBoolean("SshSharedReader");
+	
+	/**
+	 * Exec channel mode flag, commands are executed in separate exec channels if true
+	 */
+	private boolean execMode_ = false;
+	
+	/**
+	 * Result of the last command executed in exec channel mode
+	 */
+	private CommandResult execResult_;
+	
+	/**
+	 * Max number of concurrent exec channels, 0 means the server limit
+	 */
+	private int maxChannels_ = 0;
+	
+	/**
+	 * Concurrent exec channel executor
+	 */
+	private ExecutorService channelExecutor_;
 
 	/**
 	 * Response data receiving thread
 	 * It receives data continuously until disconnection.
+	 * In shared reader mode, the thread is not started and the data is received by SshReaderPool.
 	 *
 	 */
-	private class IoThread extends Thread {
+	private class IoThread extends Thread implements SshReaderPool.Receiver {
 		/**
 		 * Receiving buffer size
 		 */
@@ -143,9 +337,34 @@ public class SshClient {
 		private InputStream ins_;
 		
 		/**
-		 * Received data queue
+		 * Received line store, guarded by lock_
+		 */
+		private LineStore store_ = new LineStore();
+		
+		/**
+		 * Line store being scanned by this thread, lines are moved to store_ at batch boundary
+		 */
+		private LineStore pending_ = new LineStore();
+		
+		/**
+		 * Prompt and wait text matcher
 		 */
-		private Queue<String> que_ = new ConcurrentLinkedQueue<String>();
+		private MultiPatternMatcher matcher_;
+		
+		/**
+		 * Matcher needs to be rebuilt because prompt or wait text is changed
+		 */
+		private volatile boolean matcherDirty_ = true;
+		
+		/**
+		 * Matcher state of the open line
+		 */
+		private int state_ = MultiPatternMatcher.INITIAL_STATE;
+		
+		/**
+		 * Wait text is found in the open line
+		 */
+		private boolean lineHasWaitText_ = false;
 		
 		/**
 		 * Prompt receiving lock
@@ -157,6 +376,21 @@ public class SshClient {
 		 */
 		private Condition hasPromptCond_ = lock_.newCondition();
 		
+		/**
+		 * Data receiving condition variable in streaming mode
+		 */
+		private Condition hasDataCond_ = lock_.newCondition();
+		
+		/**
+		 * Received data queue not full condition variable in streaming mode
+		 */
+		private Condition notFullCond_ = lock_.newCondition();
+		
+		/**
+		 * Streaming mode flag, received data queue is bounded in streaming mode
+		 */
+		private boolean streaming_ = false;
+		
 		/**
 		 * Prompt received flag
 		 */
@@ -172,6 +406,76 @@ public class SshClient {
 		 */
 		private boolean timeout_;
 		
+		/**
+		 * Expect patterns to wait for, guarded by lock_
+		 */
+		private ExpectPattern[] expect_;
+		
+		/**
+		 * Expect patterns need to be reloaded because they are changed
+		 */
+		private volatile boolean expectDirty_ = false;
+		
+		/**
+		 * Expect patterns being matched by this thread
+		 */
+		private ExpectPattern[] expectActive_;
+		
+		/**
+		 * Matchers of the expect patterns being matched
+		 */
+		private Matcher[] expectMatchers_;
+		
+		/**
+		 * Search start position of each expect pattern in the window
+		 */
+		private int[] expectFrom_;
+		
+		/**
+		 * Match result found by this thread, published at batch boundary
+		 */
+		private MatchResult pendingMatch_;
+		
+		/**
+		 * Received text window for expect patterns
+		 */
+		private StringBuilder window_ = new StringBuilder();
+		
+		/**
+		 * Index of the matched expect pattern, -1 if not matched, guarded by lock_
+		 */
+		private int expectIndex_ = -1;
+		
+		/**
+		 * Match result of the expect pattern, guarded by lock_
+		 */
+		private MatchResult expectMatch_;
+		
+		/**
+		 * Received count and time lock
+		 */
+		private final Object readyLock_ = new Object();
+		
+		/**
+		 * Number of characters received, guarded by readyLock_
+		 */
+		private long received_ = 0L;
+		
+		/**
+		 * Last data received time in nanosecond, guarded by readyLock_
+		 */
+		private long lastReceived_ = System.nanoTime();
+		
+		/**
+		 * Receiving finished flag, guarded by readyLock_
+		 */
+		private boolean finished_ = false;
+		
+		/**
+		 * Shared reader mode flag, the data is received by SshReaderPool
+		 */
+		private boolean shared_ = false;
+		
 		/**
 		 * Constructor
 		 * @param ins input stream
@@ -180,6 +484,35 @@ public class SshClient {
 			ins_ = ins;
 		}
 		
+		/**
+		 * Start receiving data
+		 * @param sess SSH session of the input stream
+		 * @param shared true: receive by shared reader pool   false: receive by this thread
+		 */
+		public void startReceiving(Session sess, boolean shared) {
+			shared_ = shared;
+			if (shared)
+				SshReaderPool.getInstance().register(sess, ins_, charset_, this);
+			else
+				start();
+		}
+		
+		/**
+		 * Wait until receiving finishes, the session needs to be closed before.
+		 */
+		public void stopReceiving() {
+			if (shared_) {
+				SshReaderPool.getInstance().unregister(this);
+				return;
+			}
+			try {
+				if (isAlive())
+					join();
+			} catch (InterruptedException exp) {
+				// ignore
+			}
+		}
+		
 		/**
 		 * Check whether any time out happens
 		 * @return true: has time out   false:no time out
@@ -197,43 +530,174 @@ public class SshClient {
 		public void setWaitText(String[] text) {
 			lock_.lock();
 			waitText_ = text;
+			matcherDirty_ = true;
 			lock_.unlock();
 		}
 		
+		/**
+		 * Set expect patterns to wait for, it will returns if anyone matches.
+		 * The received text is matched from the open line when the patterns are set.
+		 * @param patterns expect patterns to wait for, null to clear
+		 */
+		public void setExpect(ExpectPattern[] patterns) {
+			lock_.lock();
+			try {
+				expect_ = patterns;
+				expectIndex_ = -1;
+				expectMatch_ = null;
+				expectDirty_ = true;
+			} finally {
+				lock_.unlock();
+			}
+		}
+		
+		/**
+		 * Get index of the matched expect pattern
+		 * @return index of the matched expect pattern, -1 if not matched
+		 */
+		public int getExpectIndex() {
+			lock_.lock();
+			try {
+				return expectIndex_;
+			} finally {
+				lock_.unlock();
+			}
+		}
+		
+		/**
+		 * Get match result of the expect pattern
+		 * @return match result, null if not matched
+		 */
+		public MatchResult getExpectMatch() {
+			lock_.lock();
+			try {
+				return expectMatch_;
+			} finally {
+				lock_.unlock();
+			}
+		}
+		
+		/**
+		 * Get the number of characters received
+		 * @return number of characters received
+		 */
+		public long receivedCount() {
+			synchronized (readyLock_) {
+				return received_;
+			}
+		}
+		
+		/**
+		 * Wait until the remote side becomes ready.
+		 * It returns when any data is received after the mark and then no data is received for the idle gap,
+		 * or the time out passes.
+		 * @param mark received count before the request, see receivedCount()
+		 * @param gap idle gap in nanosecond
+		 * @param timeout max wait time in nanosecond
+		 */
+		public void awaitQuiet(long mark, long gap, long timeout) {
+			long deadline = System.nanoTime() + timeout;
+			synchronized (readyLock_) {
+				for (;;) {
+					long now = System.nanoTime();
+					if (finished_ || now - deadline >= 0)
+						return;
+					long wait = deadline - now;
+					if (received_ != mark) {
+						long idle = now - lastReceived_;
+						if (idle >= gap)
+							return;
+						wait = Math.min(wait, gap - idle);
+					}
+					try {
+						TimeUnit.NANOSECONDS.timedWait(readyLock_, wait);
+					} catch (InterruptedException exp) {
+						return;
+					}
+				}
+			}
+		}
+		
+		/**
+		 * Rebuild the matcher before scanning the next received data
+		 */
+		public void invalidateMatcher() {
+			matcherDirty_ = true;
+		}
+		
 		/**
 		 * Thread process
 		 */
 		public void run() {
 			char[] buf = new char[BUF_SIZE];
-			char[] tmpbuf = new char[BUF_SIZE];
-			int dataSize = 0;
 			try (InputStreamReader rdr = new InputStreamReader(ins_, charset_)) {
-				int num = rdr.read(buf, dataSize, buf.length - dataSize);
+				int num = rdr.read(buf, 0, buf.length);
 				while (num >= 0)
 				{
-					if (num > 0) {
-						if (logenabled_) {
-							writeLog(buf, dataSize, num);
-						}
-						if (dataSize > 0) {
-							num += dataSize;
-							dataSize = 0;
-						}
-						dataSize = enque(buf, num, rdr.ready(), tmpbuf);
-					}
-					num = rdr.read(buf, dataSize, buf.length - dataSize);
+					if (num > 0)
+						receive(buf, num, rdr.ready());
+					num = rdr.read(buf, 0, buf.length);
 				}
 			} catch (IOException exp) {
+				finish(exp);
+				return;
+			}
+			finish(null);
+		}
+		
+		/**
+		 * Check whether more data can be received, the received data queue is bounded while streaming
+		 * @return true: can receive   false: the queue is full
+		 */
+		public boolean isReceivable() {
+			lock_.lock();
+			try {
+				return !(streaming_ && store_.lineChars() >= STREAM_BUF_SIZE);
+			} finally {
+				lock_.unlock();
+			}
+		}
+		
+		/**
+		 * Process the received data
+		 * @param buf data buffer
+		 * @param size data size
+		 * @param hasmoredata whether any more data waits for receiving
+		 * @throws IOException throw when I/O error happens
+		 */
+		public void receive(char[] buf, int size, boolean hasmoredata) throws IOException {
+			synchronized (readyLock_) {
+				received_ += size;
+				lastReceived_ = System.nanoTime();
+				readyLock_.notifyAll();
+			}
+			if (logenabled_) {
+				writeLog(buf, 0, size);
+			}
+			enque(buf, size, hasmoredata);
+		}
+		
+		/**
+		 * Receiving finished, unblock the threads waiting for the data
+		 * @param exp I/O error, null on end of stream
+		 */
+		public void finish(IOException exp) {
+			if (exp != null)
 				exp_ = exp;
-				// unblock thread invoked getResult()
-				lock_.lock();
-				try {
-					waitText_ = null;
-					hasPrompt_ = true;
-					hasPromptCond_.signal();						
-				} finally {
-					lock_.unlock();
-				}
+			// unblock thread invoked getResult() on error or end of stream
+			lock_.lock();
+			try {
+				waitText_ = null;
+				expect_ = null;
+				hasPrompt_ = true;
+				hasPromptCond_.signal();
+				hasDataCond_.signal();
+			} finally {
+				lock_.unlock();
+			}
+			synchronized (readyLock_) {
+				finished_ = true;
+				readyLock_.notifyAll();
 			}
 		}
 		
@@ -241,144 +705,456 @@ public class SshClient {
 		 * Insert the data to received data queue,
 		 * data is broken into lines to insert.
 		 * Control characters(0x00 ~ 0x31) are removed.
+		 * The data is scanned once by the matcher, the lock is taken once per data received.
 		 * @param buf data buffer
 		 * @param size data size
 		 * @param hasmoredata whether any more data waits for receiving 
-		 * @param tmpbuf internal buffer for data editing 
-		 * @return data size remained in buffer
-		 * @throws IOException throw when I/O error happens
 		 */
-		private int enque(char[] buf, int size, boolean hasmoredata, char[] tmpbuf)  throws IOException {
+		private void enque(char[] buf, int size, boolean hasmoredata) {
+			boolean waitHit = false;
+			boolean promptHit = false;
+			if (matcherDirty_)
+				rebuildMatcher();
+			if (expectDirty_)
+				reloadExpect();
+			
+			boolean expecting = (expectMatchers_ != null);
+			MultiPatternMatcher matcher = matcher_;
+			int state = state_;
 			char c;
-			int offset = 0;
-			int len = 0;
 			for (int i = 0; i < size; i ++) {
 				c = buf[i];
-				if (c == '\n') {
-					tmpbuf[len ++] = c;
-					enque(new String(tmpbuf, 0, len));
-					len = 0;
-					offset = i + 1;
-				} else if (c < '\0' || c >= ' ') {
-					tmpbuf[len ++] = c;
+				if (c == '\n' || c >= ' ') {
+					pending_.append(c);
+					if (expecting)
+						window_.append(c);
+					state = matcher.next(state, c);
+					int flags = matcher.flags(state);
+					if ((flags & WAIT_TEXT_FLAG) != 0)
+						lineHasWaitText_ = true;
+					if (c == '\n') {
+						// line ends
+						waitHit |= lineHasWaitText_;
+						promptHit |= ((flags & PROMPT_FLAG) != 0);
+						pending_.endLine();
+						state = MultiPatternMatcher.INITIAL_STATE;
+						lineHasWaitText_ = false;
+					}
+				}
+			}
+			int expectHit = expecting ? matchExpect() : -1;
+			if ((!hasmoredata || expectHit >= 0) && pending_.openLength() > 0) {
+				// no more data or expect pattern matched, the open line is inserted as it is
+				waitHit |= lineHasWaitText_;
+				promptHit |= ((matcher.flags(state) & PROMPT_FLAG) != 0);
+				pending_.endLine();
+				state = MultiPatternMatcher.INITIAL_STATE;
+				lineHasWaitText_ = false;
+			}
+			state_ = state;
+			
+			if (pending_.lineCount() > 0 || expectHit >= 0)
+				publish(waitHit, promptHit, expectHit);
+		}
+		
+		/**
+		 * Match the expect patterns against the received text window.
+		 * Each pattern resumes from the position where the previous search stopped,
+		 * the search is retried from the same position only if it reached the end of the window.
+		 * @return index of the matched expect pattern, -1 if not matched
+		 */
+		private int matchExpect() {
+			if (window_.length() > EXPECT_WINDOW_SIZE) {
+				int removed = window_.length() - EXPECT_WINDOW_SIZE;
+				window_.delete(0, removed);
+				for (int i = 0; i < expectFrom_.length; i ++) {
+					expectFrom_[i] = Math.max(0, expectFrom_[i] - removed);
 				}
 			}
-			if (offset < size) {
-				if (hasmoredata) {
-					System.arraycopy(buf, offset, buf, 0, size - offset);
-					return size - offset;
-				} else {
-					enque(new String(tmpbuf, 0, len));
+			int len = window_.length();
+			for (int i = 0; i < expectMatchers_.length; i ++) {
+				Matcher m = expectMatchers_[i];
+				m.region(expectFrom_[i], len);
+				if (m.find()) {
+					pendingMatch_ = m.toMatchResult();
+					// the text after the match remains for the next expect
+					window_.delete(0, m.end());
+					expectMatchers_ = null;
+					return i;
 				}
+				if (!m.hitEnd())
+					expectFrom_[i] = len;
 			}
-			return 0;
+			return -1;
 		}
 		
 		/**
-		 * Insert the data to received data queue
-		 * @param line data to insert
-		 * @throws IOException throw when I/O error happens
+		 * Reload the expect patterns and reset the window to the open line
+		 */
+		private void reloadExpect() {
+			ExpectPattern[] patterns;
+			lock_.lock();
+			try {
+				patterns = expect_;
+				expectDirty_ = false;
+			} finally {
+				lock_.unlock();
+			}
+			
+			expectActive_ = patterns;
+			window_.setLength(0);
+			if (patterns == null) {
+				expectMatchers_ = null;
+				return;
+			}
+			int len = pending_.openLength();
+			for (int i = 0; i < len; i ++) {
+				window_.append(pending_.openCharAt(i));
+			}
+			expectMatchers_ = new Matcher[patterns.length];
+			expectFrom_ = new int[patterns.length];
+			for (int i = 0; i < patterns.length; i ++) {
+				expectMatchers_[i] = patterns[i].getPattern().matcher(window_);
+				expectMatchers_[i].useTransparentBounds(true);
+				expectMatchers_[i].useAnchoringBounds(false);
+			}
+		}
+		
+		/**
+		 * Move the scanned lines to received data queue and signal if prompt, wait text or expect pattern is received
+		 * @param waitHit wait text is received
+		 * @param promptHit prompt is received
+		 * @param expectHit index of the matched expect pattern, -1 if not matched
+		 */
+		private void publish(boolean waitHit, boolean promptHit, int expectHit) {
+			lock_.lock();
+			try {
+				// block receiving until the streaming reader consumes the data,
+				// the shared reader doesn't block and stops reading this session instead
+				while (!shared_ && streaming_ && store_.lineChars() >= STREAM_BUF_SIZE) {
+					notFullCond_.awaitUninterruptibly();
+				}
+				pending_.moveLinesTo(store_);
+				if (streaming_)
+					hasDataCond_.signal();
+				if (waitText_ != null && waitHit && !matcherDirty_) {
+					waitText_ = null;
+					matcherDirty_ = true;
+					hasPrompt_ = true;
+					hasPromptCond_.signal();
+				}
+				if (expectHit >= 0 && expect_ == expectActive_ && !expectDirty_) {
+					expect_ = null;
+					expectIndex_ = expectHit;
+					expectMatch_ = pendingMatch_;
+					hasPrompt_ = true;
+					hasPromptCond_.signal();
+				}
+				if (promptHit) {
+					hasPrompt_ = true;
+					hasPromptCond_.signal();
+				}
+			} finally {
+				lock_.unlock();
+			}
+		}
+		
+		/**
+		 * Rebuild the matcher from the prompts and the wait text,
+		 * and rescan the open line with the new matcher.
+		 */
+		private void rebuildMatcher() {
+			String[] waittext;
+			lock_.lock();
+			try {
+				waittext = waitText_;
+				matcherDirty_ = false;
+			} finally {
+				lock_.unlock();
+			}
+			
+			List<String> patterns = new ArrayList<String>();
+			List<Integer> flags = new ArrayList<Integer>();
+			patterns.add(INTERNAL_PROMPT);
+			flags.add(PROMPT_FLAG);
+			String prompt = prompt_;
+			if (prompt != null) {
+				patterns.add(prompt);
+				flags.add(PROMPT_FLAG);
+			}
+			if (waittext != null) {
+				for (String text : waittext) {
+					patterns.add(text);
+					flags.add(WAIT_TEXT_FLAG);
+				}
+			}
+			int[] flagarray = new int[flags.size()];
+			for (int i = 0; i < flagarray.length; i ++) {
+				flagarray[i] = flags.get(i);
+			}
+			matcher_ = new MultiPatternMatcher(patterns.toArray(new String[0]), flagarray);
+			
+			state_ = MultiPatternMatcher.INITIAL_STATE;
+			lineHasWaitText_ = false;
+			int len = pending_.openLength();
+			for (int i = 0; i < len; i ++) {
+				state_ = matcher_.next(state_, pending_.openCharAt(i));
+				if ((matcher_.flags(state_) & WAIT_TEXT_FLAG) != 0)
+					lineHasWaitText_ = true;
+			}
+		}
+		
+		/**
+		 * 
+		 * Get the output text list of command
+		 * @return output text list
+		 * @return
 		 */
-		private void enque(String line) throws IOException {
+		public List<String> getResult() {
+			List<String> list = new ArrayList<String>();
 			lock_.lock();
+			long remain = waitTime_;
 			try {
-				que_.add(line);
-				if (waitText_ != null) {
-					if (checkWaitText(line, waitText_) || isPromptLine(line)) {
-						waitText_ = null;
-						hasPrompt_ = true;
-						hasPromptCond_.signal();						
+				while (!hasPrompt_) {
+					try {
+						if (waitTime_ == 0L || (waitText_ == null && expect_ == null)) {
+							hasPromptCond_.await();
+						} else {
+							remain = hasPromptCond_.awaitNanos(remain);
+							if (remain <= 0L) {
+								timeout_ = true;
+								break;
+							}
+						}
+					} catch (InterruptedException e) {
+						// ignore
 					}
-				} else {
-					if (isPromptLine(line)) {
-						hasPrompt_ = true;
-						hasPromptCond_.signal();
+				}
+				store_.drainTo(list);
+				hasPrompt_ = false;
+			} finally {
+				lock_.unlock();
+			}
+			return list;
+		}
+		
+		/**
+		 * Pass the output lines of command to the process as they are received until prompt is received.
+		 * Received data queue is bounded while streaming, the receiving waits for the process.
+		 * If the process throws, the remained output is discarded until prompt and the exception is rethrown.
+		 * @param proc process invoked with each output line
+		 * @return output text list of the prompt line
+		 */
+		public List<String> streamResult(Proc proc) {
+			List<String> list = new ArrayList<String>();
+			StringBuilder sb = new StringBuilder();
+			RuntimeException procexp = null;
+			Error procerr = null;
+			boolean done = false;
+			while (!done) {
+				list.clear();
+				lock_.lock();
+				try {
+					streaming_ = true;
+					while (!hasPrompt_ && store_.lineCount() == 0) {
+						hasDataCond_.awaitUninterruptibly();
+					}
+					store_.drainTo(list);
+					if (hasPrompt_) {
+						done = true;
+						hasPrompt_ = false;
+						streaming_ = false;
+					}
+					notFullCond_.signal();
+				} finally {
+					lock_.unlock();
+				}
+				
+				for (String line : list) {
+					if (line.endsWith("\n")) {
+						sb.append(line, 0, line.length() - 1);
+						try {
+							if (procexp == null && procerr == null)
+								proc.process(sb.toString());
+						} catch (RuntimeException exp) {
+							procexp = exp;
+						} catch (Error err) {
+							procerr = err;
+						}
+						sb.setLength(0);
+					} else {
+						sb.append(line);
 					}
 				}
+			}
+			
+			// the last line without line feed is the prompt line, it's returned as result
+			List<String> result = new ArrayList<String>();
+			if (sb.length() > 0)
+				result.add(sb.toString());
+			if (procexp != null)
+				throw procexp;
+			if (procerr != null)
+				throw procerr;
+			return result;
+		}
+		
+		/**
+		 * Clear prompt received flag
+		 */
+		public void clearPromptFlg() {
+			lock_.lock();
+			try {
+				hasPrompt_ = false;
 			} finally {
 				lock_.unlock();
 			}
 		}
 		
 		/**
-		 * Check whether any wait text matches
-		 * @param line line to check if it contains the text
-		 * @param waittext wait text to check
-		 * @return true: matches, false: unmatched
+		 * Check whether I/O error happens
+		 * @return true:I/O error happens  false:I/O error doesn't happen
+		 */
+		public boolean hasIOException() {
+			return (exp_ != null);
+		}
+		
+		/**
+		 * Get IOException
+		 * @return IOException
+		 */
+		public IOException getIOException() {
+			return exp_;
+		}
+	}
+
+	/**
+	 * Exec channel output decoder
+	 * It decodes the received bytes and breaks them into lines.
+	 * Control characters(0x00 ~ 0x31) except line feed are removed.
+	 *
+	 */
+	private class OutputDecoder {
+		/**
+		 * Character decoder
+		 */
+		private CharsetDecoder decoder_ = charset_.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+		
+		/**
+		 * Received data buffer
+		 */
+		private ByteBuffer bytes_ = ByteBuffer.allocate(EXEC_BUF_SIZE);
+		
+		/**
+		 * Decoded data buffer
+		 */
+		private CharBuffer chars_ = CharBuffer.allocate(EXEC_BUF_SIZE);
+		
+		/**
+		 * Line being decoded
+		 */
+		private StringBuilder line_ = new StringBuilder();
+		
+		/**
+		 * Decoded lines, null if lines are passed to the process
+		 */
+		private List<String> lines_;
+		
+		/**
+		 * Process invoked with each line
+		 */
+		private Proc proc_;
+		
+		/**
+		 * Constructor
+		 * @param proc process invoked with each line, null to keep the lines
+		 */
+		public OutputDecoder(Proc proc) {
+			proc_ = proc;
+			if (proc == null)
+				lines_ = new ArrayList<String>();
+		}
+		
+		/**
+		 * Read and decode the data available in the input stream without blocking
+		 * @param ins input stream
+		 * @throws IOException throw when I/O error happens
 		 */
-		private boolean checkWaitText(String line, String[] waittext) {
-			for (String text: waittext) {
-				if (line.contains(text))
-					return true;
+		public void read(InputStream ins) throws IOException {
+			int avail = ins.available();
+			while (avail > 0) {
+				int num = ins.read(bytes_.array(), bytes_.position(), Math.min(avail, bytes_.remaining()));
+				if (num < 0)
+					break;
+				bytes_.position(bytes_.position() + num);
+				decode(false);
+				avail = ins.available();
 			}
-			
-			return false;
 		}
 		
 		/**
-		 * 
-		 * Get the output text list of command
-		 * @return output text list
-		 * @return
+		 * Decode the remained data and close the last line
+		 * @return decoded lines, null if lines are passed to the process
+		 * @throws IOException throw when I/O error happens
 		 */
-		public List<String> getResult() {
-			List<String> list = new ArrayList<String>();
-			lock_.lock();
-			long remain = waitTime_;
-			try {
-				while (!hasPrompt_) {
-					try {
-						if (waitTime_ == 0L || waitText_ == null) {
-							hasPromptCond_.await();
-						} else {
-							remain = hasPromptCond_.awaitNanos(remain);
-							if (remain <= 0L) {
-								timeout_ = true;
-								break;
-							}
-						}
-					} catch (InterruptedException e) {
-						// ignore
-					}
-				}
-				String line = que_.poll();
-				while (line != null) {
-					list.add(line);
-					line = que_.poll();
-				}
-				hasPrompt_ = false;
-			} finally {
-				lock_.unlock();
-			}
-			return list;
+		public List<String> finish() throws IOException {
+			decode(true);
+			if (line_.length() > 0)
+				addLine();
+			return lines_;
 		}
 		
 		/**
-		 * Clear prompt received flag
+		 * Decode the received data
+		 * @param endOfInput no more data is received
+		 * @throws IOException throw when I/O error happens
 		 */
-		public void clearPromptFlg() {
-			lock_.lock();
-			try {
-				hasPrompt_ = false;
-			} finally {
-				lock_.unlock();
+		private void decode(boolean endOfInput) throws IOException {
+			bytes_.flip();
+			CoderResult res = decoder_.decode(bytes_, chars_, endOfInput);
+			while (res.isOverflow()) {
+				scan();
+				res = decoder_.decode(bytes_, chars_, endOfInput);
 			}
+			if (endOfInput) {
+				while (decoder_.flush(chars_).isOverflow()) {
+					scan();
+				}
+			}
+			bytes_.compact();
+			scan();
 		}
 		
 		/**
-		 * Check whether I/O error happens
-		 * @return true:I/O error happens  false:I/O error doesn't happen
+		 * Break the decoded data into lines
+		 * @throws IOException throw when I/O error happens
 		 */
-		public boolean hasIOException() {
-			return (exp_ != null);
+		private void scan() throws IOException {
+			char[] buf = chars_.array();
+			int size = chars_.position();
+			if (logenabled_ && size > 0)
+				writeLog(buf, 0, size);
+			char c;
+			for (int i = 0; i < size; i ++) {
+				c = buf[i];
+				if (c == '\n') {
+					addLine();
+				} else if (c >= ' ') {
+					line_.append(c);
+				}
+			}
+			chars_.clear();
 		}
 		
 		/**
-		 * Get IOException
-		 * @return IOException
+		 * Add the decoded line to line list or pass it to the process
 		 */
-		public IOException getIOException() {
-			return exp_;
+		private void addLine() {
+			if (proc_ != null)
+				proc_.process(line_.toString());
+			else
+				lines_.add(line_.toString());
+			line_.setLength(0);
 		}
 	}
 
@@ -428,6 +1204,78 @@ public class SshClient {
 		waitTime_ = 0L;
 	}
 	
+	/**
+	 * Set connection pool use flag.
+	 * If true, connect() borrows an authenticated connection from the pool shared by all the SSH clients
+	 * and close() returns it to the pool. Only a new shell session is opened on each connect().
+	 * @param usePool true: use connection pool   false: connect and close the connection each time(default)
+	 */
+	public void setUsePool(boolean usePool) {
+		usePool_ = usePool;
+	}
+	
+	/**
+	 * Set idle gap to detect the remote side is ready.
+	 * The shell is regarded as ready when no data is received for the idle gap after any response,
+	 * it's used before setting the prompt on connect() and before sending input data of command().
+	 * @param readyGap idle gap in millisecond, default is SshReadyGap configuration or 100
+	 */
+	public void setReadyGap(long readyGap) {
+		readyGap_ = TimeUnit.MILLISECONDS.toNanos(readyGap);
+	}
+	
+	/**
+	 * Set max wait time for the remote side to be ready
+	 * @param readyTimeout max wait time in millisecond, default is SshReadyTimeout configuration or 1000
+	 */
+	public void setReadyTimeout(long readyTimeout) {
+		readyTimeout_ = TimeUnit.MILLISECONDS.toNanos(readyTimeout);
+	}
+	
+	/**
+	 * Set shared reader mode, it's applied on the next connect().
+	 * In shared reader mode, the shell output is received by a few threads shared by all the SSH clients
+	 * (SshReaderThreads configuration, default 2) instead of one receiving thread per client.
+	 * @param sharedReader true: shared reader threads   false: dedicated receiving thread(default)
+	 */
+	public void setSharedReader(boolean sharedReader) {
+		sharedReader_ = sharedReader;
+	}
+	
+	/**
+	 * Set terminal log file name
+	 * @param termLogFilename log file name in evidence directory, default is TermLogFilename configuration
+	 */
+	public synchronized void setTermLogFilename(String termLogFilename) {
+		termLogFilename_ = termLogFilename;
+		closeTermLog();
+	}
+	
+	/**
+	 * Set exec channel mode.
+	 * In exec channel mode, command() executes each command in a separate exec channel
+	 * of the connection and gets the exit status without echo [[$?]].
+	 * The interactive shell is still available for send() and sendLine().
+	 * @param execMode true: exec channel mode   false: interactive shell mode(default)
+	 */
+	public void setExecMode(boolean execMode) {
+		execMode_ = execMode;
+	}
+	
+	/**
+	 * Set max number of concurrent exec channels used by submitCommand() and commands().
+	 * It's capped by the max sessions of SSH server(SshMaxSessions configuration, default 10),
+	 * one session is reserved for the interactive shell.
+	 * @param maxChannels max number of concurrent exec channels, 0 means the server limit
+	 */
+	public synchronized void setMaxChannels(int maxChannels) {
+		maxChannels_ = maxChannels;
+		if (channelExecutor_ != null) {
+			channelExecutor_.shutdown();
+			channelExecutor_ = null;
+		}
+	}
+	
 	/**
 	 * Set character set for the SSH session
 	 * @param charsetName character set for the SSH session, default UTF-8
@@ -453,20 +1301,43 @@ public class SshClient {
 		conn_ = null;
 		sess_ = null;
 		try {
-			conn_ = new Connection(hostname, port);
-			conn_.connect();
-			boolean isAuthenticated = conn_.authenticateWithPassword(username, password);
-			if (isAuthenticated == false)
-				throw new TestException("Authentication failed.");
-			sess_ = conn_.openSession();
+			Connection conn = null;
+			if (usePool_)
+				conn = getConnectionPool().borrow(hostname, port, username, password);
+			// the pool is full, connect without it
+			boolean pooled = conn != null;
+			if (conn == null)
+				conn = connFactory_.create(hostname, port, username, password);
+			synchronized (this) {
+				conn_ = conn;
+				pooled_ = pooled;
+				if (aborted_)
+					throw new IOException("Ssh connection aborted");
+			}
+			try {
+				sess_ = conn_.openSession();
+			} catch (IOException exp) {
+				if (!pooled)
+					throw exp;
+				// the pooled connection was dropped silently, connect again once without the pool
+				closeConnection(true);
+				conn = connFactory_.create(hostname, port, username, password);
+				synchronized (this) {
+					conn_ = conn;
+					pooled_ = false;
+					if (aborted_)
+						throw new IOException("Ssh connection aborted");
+				}
+				sess_ = conn_.openSession();
+			}
 			sess_.requestPTY("dumb", width_, height_, 0, 0, null);
 			sess_.startShell();
 			outs_ = sess_.getStdout();
 			inwrt_ = new OutputStreamWriter(sess_.getStdin());
 			outtrd_ = new IoThread(outs_);
-			outtrd_.start();
-			// set prompt
-			Util.sleep(1);
+			outtrd_.startReceiving(sess_, sharedReader_);
+			// set prompt after the login messages are received
+			outtrd_.awaitQuiet(0L, readyGap_, readyTimeout_);
 			outtrd_.clearPromptFlg();
 			inwrt_.write("PS1='" + INTERNAL_PROMPT + "'" + LINE_FEED);
 			inwrt_.flush();
@@ -489,10 +1360,9 @@ public class SshClient {
 				sess_.close();
 				sess_ = null;
 			}
-			if (conn_ != null) {
-				conn_.close();
-				conn_ = null;
-			}
+			if (outtrd_ != null)
+				outtrd_.stopReceiving();
+			closeConnection(true);
 			throw new TestException("Ssh connection(" + hostname + "," + port + "," + username + "," + password + ") failed", exp);
 		}
 	}
@@ -562,20 +1432,70 @@ public class SshClient {
 	 * @return exit code
 	 */
 	public int execCommand(String command, String input){
+		return execCommand(command, input, null);
+	}
+	
+	/**
+	 * 
+	 * Execute command on remote host, the output lines are passed to the process as they are received.
+	 * The output is not kept, result() returns only the last line of the output.
+	 * @param command command to execute
+	 * @param proc process invoked with each output line
+	 * @return exit code
+	 */
+	public int commandStream(String command, Proc proc){
+		return commandStream(command, 0, proc);
+	}
+	
+	/**
+	 * 
+	 * Execute command on remote host, the output lines are passed to the process as they are received.
+	 * The output is not kept, result() returns only the last line of the output.
+	 * @param command command to execute
+	 * @param expectExitCode expected exit code
+	 * @param proc process invoked with each output line
+	 * @return exit code
+	 */
+	public int commandStream(String command, int expectExitCode, Proc proc){
+		int exitcode = execCommand(command, null, proc);
+		assert exitcode == expectExitCode : "command(" + command + ") failed: exitcode=" + exitcode;
+		return exitcode;
+	}
+	
+	/**
+	 * 
+	 * Execute command on remote host
+	 * @param command command to execute
+	 * @param input input data to the command
+	 * @param proc process invoked with each output line, null to keep the whole output
+	 * @return exit code
+	 */
+	private int execCommand(String command, String input, Proc proc){
+		if (execMode_) {
+			execResult_ = execChannel(command, input, proc);
+			return execResult_.getExitCode();
+		}
+		
 		int exitcode = 0;
 		result_ = null;
+		execResult_ = null;
 		try {
+			long mark = outtrd_.receivedCount();
 			outtrd_.clearPromptFlg();
 			inwrt_.write(command + LINE_FEED);
 			inwrt_.flush();
 	
 			if (input != null) {
-				Util.sleep(1);
+				// send input after the command echo is received and the command waits for input
+				outtrd_.awaitQuiet(mark, readyGap_, readyTimeout_);
 				inwrt_.write(input);
 				inwrt_.flush();
 			}
 			
-			result_ = outtrd_.getResult();
+			if (proc == null)
+				result_ = outtrd_.getResult();
+			else
+				result_ = outtrd_.streamResult(proc);
 			checkIoThreadException();
 			
 			if (prompt_ == null) {
@@ -598,6 +1518,124 @@ public class SshClient {
 		
 		return exitcode;
 	}
+	
+	/**
+	 * 
+	 * Execute command on remote host in a separate exec channel
+	 * @param command command to execute
+	 * @param input input data to the command
+	 * @param proc process invoked with each output line, null to keep the whole output
+	 * @return command result
+	 */
+	private CommandResult execChannel(String command, String input, Proc proc) {
+		Session sess = null;
+		try {
+			sess = conn_.openSession();
+			sess.execCommand(command, charset_.name());
+			if (logenabled_) {
+				char[] cmdline = (INTERNAL_PROMPT + command + LINE_FEED).toCharArray();
+				writeLog(cmdline, 0, cmdline.length);
+			}
+			
+			OutputStream stdin = sess.getStdin();
+			if (input != null)
+				stdin.write(input.getBytes(charset_));
+			stdin.close();
+			
+			InputStream stdout = sess.getStdout();
+			InputStream stderr = sess.getStderr();
+			OutputDecoder outdec = new OutputDecoder(proc);
+			OutputDecoder errdec = new OutputDecoder(null);
+			for (;;) {
+				if (stdout.available() == 0 && stderr.available() == 0) {
+					// wait for ever as same as interactive shell mode
+					int cond = sess.waitForCondition(ChannelCondition.STDOUT_DATA | ChannelCondition.STDERR_DATA | ChannelCondition.EOF, 0L);
+					if ((cond & (ChannelCondition.STDOUT_DATA | ChannelCondition.STDERR_DATA)) == 0
+							&& (cond & ChannelCondition.EOF) != 0)
+						break;
+				}
+				outdec.read(stdout);
+				errdec.read(stderr);
+			}
+			
+			List<String> output = outdec.finish();
+			List<String> error = errdec.finish();
+			// the process killed by a signal sends exit-signal and closes the channel without exit-status
+			sess.waitForCondition(ChannelCondition.EXIT_STATUS | ChannelCondition.EXIT_SIGNAL | ChannelCondition.CLOSED, 0L);
+			Integer status = sess.getExitStatus();
+			return new CommandResult(command, status == null ? -1 : status.intValue(), output, error);
+		} catch (IOException exp) {
+			throw new TestException("Command " + command + " failed", exp);
+		} finally {
+			if (sess != null)
+				sess.close();
+		}
+	}
+
+	/**
+	 * 
+	 * Execute command on remote host in a separate exec channel concurrently with other commands.
+	 * It doesn't change result() of this client.
+	 * @param command command to execute
+	 * @return future of the command result
+	 */
+	public synchronized Future<CommandResult> submitCommand(final String command) {
+		if (channelExecutor_ == null) {
+			channelExecutor_ = Executors.newFixedThreadPool(getMaxChannels(), new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "SshChannel");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return channelExecutor_.submit(new Callable<CommandResult>() {
+			public CommandResult call() {
+				return execChannel(command, null, null);
+			}
+		});
+	}
+	
+	/**
+	 * 
+	 * Execute commands on remote host concurrently in separate exec channels
+	 * @param commands commands to execute
+	 * @return command results in order of the commands
+	 */
+	public List<CommandResult> commands(String[] commands) {
+		List<Future<CommandResult>> futures = new ArrayList<Future<CommandResult>>();
+		for (String command : commands) {
+			futures.add(submitCommand(command));
+		}
+		List<CommandResult> results = new ArrayList<CommandResult>();
+		for (int i = 0; i < commands.length; i ++) {
+			try {
+				results.add(futures.get(i).get());
+			} catch (ExecutionException exp) {
+				if (exp.getCause() instanceof TestException)
+					throw (TestException)exp.getCause();
+				throw new TestException("Command " + commands[i] + " failed", exp.getCause());
+			} catch (InterruptedException exp) {
+				throw new TestException("Command " + commands[i] + " interrupted", exp);
+			}
+		}
+		return results;
+	}
+	
+	/**
+	 * Get max number of concurrent exec channels
+	 * @return max number of concurrent exec channels
+	 */
+	private int getMaxChannels() {
+		int maxsessions = Configure.getConfigAsInt("SshMaxSessions");
+		if (maxsessions <= 0)
+			maxsessions = DEFAULT_MAX_SESSIONS;
+		// one session is used by the interactive shell
+		int limit = Math.max(1, maxsessions - 1);
+		if (maxChannels_ > 0)
+			return Math.min(maxChannels_, limit);
+		return limit;
+	}
 
 	/**
 	 * Check exit code of last command by send echo[[$?]]
@@ -611,6 +1649,12 @@ public class SshClient {
 	 * @param expectExitCode expected exit code
 	 */
 	public void checkExitCode(int expectExitCode) {
+		if (execResult_ != null) {
+			// exit status of exec channel
+			assert execResult_.getExitCode() == expectExitCode;
+			return;
+		}
+		
 		int exitcode = 0;
 		try {
 			outtrd_.clearPromptFlg();
@@ -674,6 +1718,7 @@ public class SshClient {
 	public boolean send(String text, String[] waitText){
 		boolean timeout;
 		outtrd_.setWaitText(waitText);
+		execResult_ = null;
 		
 		try {
 			outtrd_.clearPromptFlg();
@@ -692,6 +1737,63 @@ public class SshClient {
 		return !timeout;
 	}
 	
+	/**
+	 * Send one line of text to remote, and wait for the expect patterns
+	 * @param text text to send, a LF(0x10) is appended to the text
+	 * @param patterns expect patterns to wait for, it will returns if anyone matches
+	 * @return index of the matched pattern, -1 if prompt is received or time out
+	 */
+	public int expectLine(String text, ExpectPattern[] patterns){
+		return expect(text + LINE_FEED, patterns);
+	}
+	
+	/**
+	 * 
+	 * Send text to remote, and wait for the expect patterns.
+	 * The patterns are matched incrementally against the received text including line feeds,
+	 * so they can match the text across line boundaries.
+	 * If several patterns match, the first one in the array is selected.
+	 * The action of the matched pattern is invoked with the matched text.
+	 * @param text text to send, null to wait without sending
+	 * @param patterns expect patterns to wait for, it will returns if anyone matches
+	 * @return index of the matched pattern, -1 if prompt is received or time out
+	 */
+	public int expect(String text, ExpectPattern[] patterns){
+		int index;
+		outtrd_.setExpect(patterns);
+		execResult_ = null;
+		
+		try {
+			outtrd_.clearPromptFlg();
+			if (text != null) {
+				inwrt_.write(text);
+				inwrt_.flush();
+			}
+			
+			result_ = outtrd_.getResult();
+			checkIoThreadException();
+			
+		} catch (IOException exp) {
+			throw new TestException("Send " + text + " failed", exp);
+		} finally {
+			index = outtrd_.getExpectIndex();
+			lastMatch_ = outtrd_.getExpectMatch();
+			outtrd_.setExpect(null);
+			outtrd_.checkTimeout();
+		}
+		if (index >= 0 && patterns[index].getAction() != null)
+			patterns[index].getAction().process(lastMatch_.group());
+		return index;
+	}
+	
+	/**
+	 * Get match result of the last expect()
+	 * @return match result, null if no pattern matched
+	 */
+	public MatchResult lastMatch() {
+		return lastMatch_;
+	}
+	
 	/**
 	 * Send one line of text to remote, do not wait response
 	 * @param text text to send, a LF(0x10) is appended to the text
@@ -714,19 +1816,6 @@ public class SshClient {
 		}
 	}
 	
-	/**
-	 * Open terminal log file to write
-	 * @return BufferedWriter object of terminal log file
-	 */
-	private BufferedWriter getLogWriter() {
-		Path logfile = ExProgressFormatter.getEvidenceDirName().resolve(Configure.getConfig("TermLogFilename"));
-		try {
-			return Files.newBufferedWriter(logfile, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
-		} catch (IOException exp) {
-			throw new TestException("Term log file " + logfile + " open failed", exp);
-		}
-	}
-	
 	/**
 	 * Get the exit code of command
 	 * @param result output text of command
@@ -751,6 +1840,9 @@ public class SshClient {
 	 * @return output text list
 	 */
 	public List<String> result() {
+		if (execResult_ != null)
+			return new ArrayList<String>(execResult_.getOutput());
+		
 		List<String> list = new ArrayList<String>();
 		StringBuffer sb = new StringBuffer();
 		for (String line : result_) {
@@ -768,24 +1860,122 @@ public class SshClient {
 		return list;
 	}
 	
+	/**
+	 * Get the standard error text list of the last command executed in exec channel mode
+	 * @return standard error text list, empty list if the command is executed in interactive shell
+	 */
+	public List<String> error() {
+		if (execResult_ != null)
+			return new ArrayList<String>(execResult_.getError());
+		return new ArrayList<String>();
+	}
+	
 	/**
 	 * Close SSH connection
 	 */
 	public void close() {
+		ExecutorService executor;
+		synchronized (this) {
+			executor = channelExecutor_;
+			channelExecutor_ = null;
+		}
+		// the connection still used by an exec channel is not returned to the pool
+		boolean channelsRunning = false;
+		if (executor != null) {
+			executor.shutdownNow();
+			try {
+				channelsRunning = !executor.awaitTermination(CHANNEL_CLOSE_WAIT, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException exp) {
+				channelsRunning = true;
+				Thread.currentThread().interrupt();
+			}
+		}
 		if (sess_ != null) {
 			sess_.close();
 			sess_ = null;
 		}
-		try {
-			if (outtrd_ != null && outtrd_.isAlive()) {
-				outtrd_.join();
-			}
-		} catch (InterruptedException exp) {
-			// ignore
+		if (outtrd_ != null)
+			outtrd_.stopReceiving();
+		closeConnection(channelsRunning || (outtrd_ != null && outtrd_.hasIOException()));
+		closeTermLog();
+		synchronized (this) {
+			aborted_ = false;
+		}
+	}
+	
+	/**
+	 * Abort the running command from another thread by closing the connection.
+	 * The blocked command fails with TestException, the connection is not returned to the pool.
+	 * Call close() to release the other resources after the command fails.
+	 */
+	public synchronized void abort() {
+		aborted_ = true;
+		if (conn_ != null)
+			conn_.close();
+	}
+	
+	/**
+	 * Get millisecond configuration value as nanosecond
+	 * @param name configuration key name
+	 * @param defaultValue default value in millisecond used when the configuration doesn't exist
+	 * @return value in nanosecond
+	 */
+	private static long getMillisConfigAsNanos(String name, long defaultValue) {
+		int value = Configure.getConfigAsInt(name);
+		return TimeUnit.MILLISECONDS.toNanos(value > 0 ? value : defaultValue);
+	}
+	
+	/**
+	 * Get threads running the ping of the pooled connection, they're created at the first use
+	 * @return ping threads
+	 */
+	private static synchronized ExecutorService getPingExecutor() {
+		if (pingExecutor_ == null) {
+			pingExecutor_ = Executors.newCachedThreadPool(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "SshPing");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
 		}
-		if (conn_ != null) {
+		return pingExecutor_;
+	}
+
+	/**
+	 * Get SSH connection pool, it's created at the first use
+	 * @return SSH connection pool
+	 */
+	private static synchronized ConnectionPool<Connection> getConnectionPool() {
+		if (connPool_ == null)
+			connPool_ = new ConnectionPool<Connection>("Ssh", connFactory_);
+		return connPool_;
+	}
+	
+	/**
+	 * Return the connection to the pool or close it
+	 * @param broken true if the connection may be broken, it's not returned to the pool
+	 */
+	private synchronized void closeConnection(boolean broken) {
+		if (conn_ == null)
+			return;
+		if (!pooled_)
 			conn_.close();
-			conn_ = null;
+		else if (broken || aborted_)
+			getConnectionPool().invalidate(conn_);
+		else
+			getConnectionPool().release(conn_);
+		conn_ = null;
+		pooled_ = false;
+	}
+	
+	/**
+	 * Flush and close terminal log file
+	 */
+	private synchronized void closeTermLog() {
+		if (termLog_ != null) {
+			termLog_.close();
+			termLog_ = null;
 		}
 	}
 
@@ -795,25 +1985,17 @@ public class SshClient {
 	 */
 	public void setPrompt(String prompt) {
 		prompt_ = prompt;
-	}
-
-	/**
-	 * Check whether the line ends with prompt
-	 * @param line line to check
-	 * @return true: line ends with prompt   false:line doesn't end with prompt
-	 */
-	private boolean isPromptLine(String line) {
-		if (prompt_ != null) {
-			return (line.endsWith(prompt_) || line.endsWith(INTERNAL_PROMPT));
-		}
-		return line.endsWith(INTERNAL_PROMPT);
+		if (outtrd_ != null)
+			outtrd_.invalidateMatcher();
 	}
 
 	/**
 	 * Check whether the last line of command output ends with prompt
-	 * @return true: last line ends with prompt   false:last line doesn't end with prompt
+	 * @return true: last line ends with prompt   false:last line doesn't end with prompt or no output
 	 */
 	public boolean checkPrompt() {
+		if (result_ == null || result_.isEmpty())
+			return false;
 		String lastline = result_.get(result_.size() - 1);
 		if (prompt_ == null) {
 			return lastline.endsWith(INTERNAL_PROMPT);
@@ -830,19 +2012,9 @@ public class SshClient {
 	 * @throws IOException throw when I/O error happens
 	 */
 	private synchronized void writeLog(char[] buf, int offset, int len) throws IOException {
-		BufferedWriter wrt = null;
-
-		try {
-			wrt = getLogWriter();
-			wrt.write(buf, offset, len);
-		} finally { 
-			try {
-				if (wrt != null)
-					wrt.close();
-			} catch (IOException e) {
-				// ignore
-			}
-		}
+		if (termLog_ == null)
+			termLog_ = new TermLogWriter(termLogFilename_);
+		termLog_.write(buf, offset, len);
 	}
 	
 	/**
@@ -860,8 +2032,14 @@ public class SshClient {
 	/**
 	 * Keep SSH session alive to avoid timeout
 	 * Call this method before/after each test case.
+	 * It sends SSH ping request instead of executing command on the shell.
 	 */
 	public void keepAlive() {
-		command("pwd");
+		try {
+			conn_.ping();
+		} catch (IOException exp) {
+			throw new TestException("Ssh keep alive failed", exp);
+		}
+		checkIoThreadException();
 	}
 }
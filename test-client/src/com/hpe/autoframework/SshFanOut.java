@@ -0,0 +1,277 @@
+package com.hpe.autoframework;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.testng.TestException;
+
+/**
+ *
+ * Executes the same command on multiple hosts concurrently.
+ * Each host is connected by its own SshClient, the terminal log of each host
+ * is written to the file prefixed by the host name.
+ *
+ */
+public class SshFanOut {
+
+	/**
+	 * Default max number of hosts processed concurrently
+	 */
+	private static final int DEFAULT_THREADS = 16;
+
+	/**
+	 * Extra wait time for the aborted host to return its result in millisecond
+	 */
+	private static final long ABORT_GRACE = 1000L;
+
+	/**
+	 * Host information
+	 */
+	protected class Host {
+		String hostname_;
+		int port_;
+		String username_;
+		String password_;
+
+		Host(String hostname, int port, String username, String password) {
+			hostname_ = hostname;
+			port_ = port;
+			username_ = username;
+			password_ = password;
+		}
+	}
+
+	/**
+	 * Hosts to execute the command
+	 */
+	private List<Host> hosts_ = new ArrayList<Host>();
+
+	/**
+	 * Max number of hosts processed concurrently, default is SshFanOutThreads configuration or 16
+	 */
+	private int threads_;
+
+	/**
+	 * Time out of each host in nanosecond, 0 means no time out
+	 */
+	private long timeout_ = 0L;
+
+	/**
+	 * Terminal log output enable flag
+	 */
+	private boolean logenabled_ = true;
+
+	/**
+	 * Exec channel mode flag of each SshClient
+	 */
+	private boolean execMode_ = false;
+
+	/**
+	 * Constructor
+	 */
+	public SshFanOut() {
+		int threads = Configure.getConfigAsInt("SshFanOutThreads");
+		threads_ = threads > 0 ? threads : DEFAULT_THREADS;
+	}
+
+	/**
+	 * Add host to execute the command
+	 * @param hostname remote host name
+	 * @param port remote host port
+	 * @param username login user name
+	 * @param password login password
+	 */
+	public void addHost(String hostname, int port, String username, String password) {
+		hosts_.add(new Host(hostname, port, username, password));
+	}
+
+	/**
+	 * Get number of hosts
+	 * @return number of hosts
+	 */
+	public int size() {
+		return hosts_.size();
+	}
+
+	/**
+	 * Set max number of hosts processed concurrently
+	 * @param threads max number of hosts processed concurrently
+	 */
+	public void setThreads(int threads) {
+		threads_ = threads;
+	}
+
+	/**
+	 * Set time out of each host including connection
+	 * @param timeout time out in second
+	 */
+	public void setTimeout(long timeout) {
+		timeout_ = TimeUnit.SECONDS.toNanos(timeout);
+	}
+
+	/**
+	 * Clear time out to wait for ever
+	 */
+	public void clearTimeout() {
+		timeout_ = 0L;
+	}
+
+	/**
+	 * Set terminal log output enable flag
+	 * @param logenabled enabling terminal log output, default value is true
+	 */
+	public void setLogEnabled(boolean logenabled) {
+		logenabled_ = logenabled;
+	}
+
+	/**
+	 * Set exec channel mode of each SshClient
+	 * @param execMode true: exec channel mode   false: interactive shell mode(default)
+	 */
+	public void setExecMode(boolean execMode) {
+		execMode_ = execMode;
+	}
+
+	/**
+	 * Execute command on all the hosts concurrently.
+	 * The failure of a host doesn't stop the other hosts, it's reported in the result.
+	 * @param command command to execute
+	 * @return results in order of the hosts
+	 */
+	public FanOutResult execute(final String command) {
+		ThreadFactory factory = new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "SshFanOut");
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+		int threads = Math.max(1, Math.min(threads_, hosts_.size()));
+		ExecutorService executor = Executors.newFixedThreadPool(threads, factory);
+		final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(factory);
+		FanOutResult result = new FanOutResult(command);
+		// start time of each host, 0 while it waits for a thread
+		final AtomicLongArray started = new AtomicLongArray(hosts_.size());
+		long begin = System.nanoTime();
+		try {
+			List<Future<CommandResult>> futures = new ArrayList<Future<CommandResult>>();
+			for (int i = 0; i < hosts_.size(); i ++) {
+				final Host host = hosts_.get(i);
+				final int index = i;
+				futures.add(executor.submit(new Callable<CommandResult>() {
+					public CommandResult call() {
+						started.set(index, Math.max(System.nanoTime(), 1L));
+						return executeOnHost(host, command, watchdog);
+					}
+				}));
+			}
+			for (int i = 0; i < hosts_.size(); i ++) {
+				String hostname = hosts_.get(i).hostname_;
+				Future<CommandResult> future = futures.get(i);
+				try {
+					result.addResult(hostname, awaitResult(future, started, i, begin, threads));
+				} catch (ExecutionException exp) {
+					result.addFailure(hostname, exp.getCause());
+				} catch (TimeoutException exp) {
+					// the host is stuck even after the abort, give up it
+					future.cancel(true);
+					result.addFailure(hostname, new TestException("Command " + command + " timed out on " + hostname, exp));
+				} catch (InterruptedException exp) {
+					throw new TestException("Command " + command + " interrupted", exp);
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+			watchdog.shutdownNow();
+		}
+		return result;
+	}
+
+	/**
+	 * Wait for the result of the host, bounded by the time out from the start of the host.
+	 * The host waiting for a thread is given up at the deadline of its turn.
+	 * @param future result of the host
+	 * @param started start time of each host
+	 * @param index index of the host
+	 * @param begin start time of the execution
+	 * @param threads number of the threads
+	 * @return command result
+	 * @throws InterruptedException throw when the waiting thread is interrupted
+	 * @throws ExecutionException throw when the host failed
+	 * @throws TimeoutException throw when the host doesn't return after the time out
+	 */
+	private CommandResult awaitResult(Future<CommandResult> future, AtomicLongArray started, int index, long begin, int threads)
+			throws InterruptedException, ExecutionException, TimeoutException {
+		if (timeout_ <= 0L)
+			return future.get();
+		long limit = timeout_ + TimeUnit.MILLISECONDS.toNanos(ABORT_GRACE);
+		// each turn of the threads is bounded by the time out
+		long turnDeadline = begin + (index / threads + 1) * limit;
+		for (;;) {
+			long start = started.get(index);
+			long deadline = start != 0L ? start + limit : turnDeadline;
+			long remaining = deadline - System.nanoTime();
+			try {
+				return future.get(Math.max(remaining, 0L), TimeUnit.NANOSECONDS);
+			} catch (TimeoutException exp) {
+				// retry if the host started while waiting for its turn
+				if (start != 0L || started.get(index) == 0L)
+					throw exp;
+			}
+		}
+	}
+
+	/**
+	 * Execute command on the host, the connection is aborted on time out
+	 * @param host host to execute the command
+	 * @param command command to execute
+	 * @param watchdog time out scheduler
+	 * @return command result
+	 */
+	private CommandResult executeOnHost(Host host, String command, ScheduledExecutorService watchdog) {
+		final SshClient client = new SshClient(logenabled_);
+		String logfilename = Configure.getConfig("TermLogFilename");
+		if (logfilename != null)
+			client.setTermLogFilename(host.hostname_ + "_" + logfilename);
+		client.setExecMode(execMode_);
+
+		final boolean[] timedout = new boolean[1];
+		ScheduledFuture<?> timer = null;
+		if (timeout_ > 0L) {
+			timer = watchdog.schedule(new Runnable() {
+				public void run() {
+					synchronized (timedout) {
+						timedout[0] = true;
+					}
+					client.abort();
+				}
+			}, timeout_, TimeUnit.NANOSECONDS);
+		}
+		try {
+			client.connect(host.hostname_, host.port_, host.username_, host.password_);
+			int exitcode = client.commandNoCheck(command);
+			return new CommandResult(command, exitcode, client.result(), client.error());
+		} catch (RuntimeException exp) {
+			synchronized (timedout) {
+				if (timedout[0])
+					throw new TestException("Command " + command + " timed out on " + host.hostname_, exp);
+			}
+			throw exp;
+		} finally {
+			if (timer != null)
+				timer.cancel(false);
+			client.close();
+		}
+	}
+}
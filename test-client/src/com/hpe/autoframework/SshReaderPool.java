@@ -0,0 +1,300 @@
+package com.hpe.autoframework;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import ch.ethz.ssh2.ChannelCondition;
+import ch.ethz.ssh2.Session;
+
+/**
+ *
+ * Shared receiving thread pool for SSH shell sessions.
+ * A few reader threads poll many sessions for available data instead of
+ * one blocking thread per session. The data is decoded and handed to the
+ * receiver of each session in the reader thread.
+ * Idle reader threads back off from 1 millisecond to SshReaderMaxBackoff(millisecond).
+ *
+ */
+public class SshReaderPool {
+
+	/**
+	 * Default number of reader threads
+	 */
+	private static final int DEFAULT_THREADS = 2;
+
+	/**
+	 * Default max back off time of idle reader thread in millisecond
+	 */
+	private static final int DEFAULT_MAX_BACKOFF = 20;
+
+	/**
+	 * Receiving buffer size in byte
+	 */
+	private static final int BUF_SIZE = 1024 * 16;
+
+	/**
+	 * Shared instance
+	 */
+	private static SshReaderPool instance_;
+
+	/**
+	 * Receiver of the session data
+	 */
+	interface Receiver {
+
+		/**
+		 * Check whether the receiver can accept more data
+		 * @return true: can accept   false: the data should be kept in the session
+		 */
+		boolean isReceivable();
+
+		/**
+		 * Process the received data
+		 * @param buf data buffer
+		 * @param size data size
+		 * @param hasmoredata whether any more data waits for receiving
+		 * @throws IOException throw when I/O error happens
+		 */
+		void receive(char[] buf, int size, boolean hasmoredata) throws IOException;
+
+		/**
+		 * Receiving finished by end of stream or error
+		 * @param exp I/O error, null on end of stream
+		 */
+		void finish(IOException exp);
+	}
+
+	/**
+	 * Registered session
+	 */
+	private class Entry {
+		Session sess_;
+		InputStream ins_;
+		Receiver receiver_;
+		CharsetDecoder decoder_;
+		ByteBuffer bytes_ = ByteBuffer.allocate(BUF_SIZE);
+		CharBuffer chars_ = CharBuffer.allocate(BUF_SIZE);
+		boolean closed_ = false;
+
+		Entry(Session sess, InputStream ins, Charset charset, Receiver receiver) {
+			sess_ = sess;
+			ins_ = ins;
+			receiver_ = receiver;
+			decoder_ = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+		}
+
+		/**
+		 * Read and process the available data without blocking
+		 * @return true if any data is processed
+		 * @throws IOException throw when I/O error happens
+		 */
+		synchronized boolean poll() throws IOException {
+			if (closed_)
+				return false;
+			int avail = ins_.available();
+			if (avail <= 0 || !receiver_.isReceivable())
+				return false;
+			int num = ins_.read(bytes_.array(), bytes_.position(), Math.min(avail, bytes_.remaining()));
+			if (num <= 0)
+				return false;
+			bytes_.position(bytes_.position() + num);
+			bytes_.flip();
+			CoderResult result;
+			do {
+				result = decoder_.decode(bytes_, chars_, false);
+				if (chars_.position() > 0) {
+					boolean hasmoredata = result.isOverflow() || ins_.available() > 0;
+					receiver_.receive(chars_.array(), chars_.position(), hasmoredata);
+					chars_.clear();
+				}
+			} while (result.isOverflow());
+			bytes_.compact();
+			return true;
+		}
+
+		/**
+		 * Check whether the drained session reached the end of stream.
+		 * The session is waited only after the remote side exited, so the running session doesn't block the poll.
+		 * @return true: end of stream or closed   false: the session may receive more data
+		 * @throws IOException throw when I/O error happens
+		 */
+		synchronized boolean isEnded() throws IOException {
+			if (closed_ || ins_.available() > 0)
+				return false;
+			if (sess_.getExitStatus() == null && sess_.getExitSignal() == null)
+				return false;
+			int cond = sess_.waitForCondition(ChannelCondition.STDOUT_DATA | ChannelCondition.EOF | ChannelCondition.CLOSED, 1L);
+			return (cond & ChannelCondition.STDOUT_DATA) == 0 && (cond & (ChannelCondition.EOF | ChannelCondition.CLOSED)) != 0;
+		}
+
+		/**
+		 * Close the entry and notify the receiver
+		 * @param exp I/O error, null on end of stream or close
+		 */
+		synchronized void close(IOException exp) {
+			if (closed_)
+				return;
+			closed_ = true;
+			receiver_.finish(exp);
+		}
+	}
+
+	/**
+	 * Reader thread
+	 */
+	private class Worker extends Thread {
+		/**
+		 * Sessions read by this thread
+		 */
+		List<Entry> entries_ = new CopyOnWriteArrayList<Entry>();
+
+		/**
+		 * Next session to wait for when idle
+		 */
+		int next_ = 0;
+
+		Worker(int index) {
+			super("SshReader-" + index);
+			setDaemon(true);
+		}
+
+		/**
+		 * Thread process
+		 */
+		public void run() {
+			long backoff = 1L;
+			for (;;) {
+				boolean received = false;
+				for (Entry entry : entries_) {
+					try {
+						if (entry.poll()) {
+							received = true;
+						} else if (entry.isEnded()) {
+							entries_.remove(entry);
+							entry.close(null);
+						}
+					} catch (IOException exp) {
+						entries_.remove(entry);
+						entry.close(exp);
+					}
+				}
+				if (received) {
+					backoff = 1L;
+					continue;
+				}
+				idle(backoff);
+				backoff = Math.min(backoff * 2, maxBackoff_);
+			}
+		}
+
+		/**
+		 * Wait for one session in turn while no data is received,
+		 * the end of stream of the session closed without exit status is detected here.
+		 * @param backoff wait time in millisecond
+		 */
+		private void idle(long backoff) {
+			Entry entry = null;
+			if (!entries_.isEmpty()) {
+				try {
+					entry = entries_.get(next_ ++ % entries_.size());
+				} catch (IndexOutOfBoundsException exp) {
+					// removed concurrently
+				}
+			}
+			if (entry == null || !entry.receiver_.isReceivable()) {
+				try {
+					Thread.sleep(backoff);
+				} catch (InterruptedException exp) {
+					// ignore
+				}
+				return;
+			}
+			int cond = entry.sess_.waitForCondition(ChannelCondition.STDOUT_DATA | ChannelCondition.EOF | ChannelCondition.CLOSED, backoff);
+			if ((cond & ChannelCondition.STDOUT_DATA) == 0 && (cond & (ChannelCondition.EOF | ChannelCondition.CLOSED)) != 0) {
+				entries_.remove(entry);
+				entry.close(null);
+			}
+		}
+	}
+
+	/**
+	 * Reader threads
+	 */
+	private List<Worker> workers_ = new ArrayList<Worker>();
+
+	/**
+	 * Max back off time of idle reader thread in millisecond
+	 */
+	private long maxBackoff_;
+
+	/**
+	 * Constructor
+	 * @param threads number of reader threads
+	 * @param maxBackoff max back off time of idle reader thread in millisecond
+	 */
+	private SshReaderPool(int threads, long maxBackoff) {
+		maxBackoff_ = maxBackoff;
+		for (int i = 0; i < threads; i ++) {
+			Worker worker = new Worker(i);
+			workers_.add(worker);
+			worker.start();
+		}
+	}
+
+	/**
+	 * Get shared instance, the number of threads is SshReaderThreads configuration
+	 * @return shared instance
+	 */
+	public static synchronized SshReaderPool getInstance() {
+		if (instance_ == null) {
+			int threads = Configure.getConfigAsInt("SshReaderThreads");
+			int maxbackoff = Configure.getConfigAsInt("SshReaderMaxBackoff");
+			instance_ = new SshReaderPool(threads > 0 ? threads : DEFAULT_THREADS, maxbackoff > 0 ? maxbackoff : DEFAULT_MAX_BACKOFF);
+		}
+		return instance_;
+	}
+
+	/**
+	 * Register the session to the least loaded reader thread
+	 * @param sess SSH session
+	 * @param ins input stream of the session
+	 * @param charset character set of the session
+	 * @param receiver receiver of the data
+	 */
+	void register(Session sess, InputStream ins, Charset charset, Receiver receiver) {
+		Worker target = null;
+		synchronized (this) {
+			for (Worker worker : workers_) {
+				if (target == null || worker.entries_.size() < target.entries_.size())
+					target = worker;
+			}
+		}
+		target.entries_.add(new Entry(sess, ins, charset, receiver));
+	}
+
+	/**
+	 * Unregister the session, the receiver is finished if it's not yet.
+	 * It waits for the data being processed.
+	 * @param receiver receiver of the data
+	 */
+	void unregister(Receiver receiver) {
+		for (Worker worker : workers_) {
+			for (Entry entry : worker.entries_) {
+				if (entry.receiver_ == receiver) {
+					worker.entries_.remove(entry);
+					entry.close(null);
+					return;
+				}
+			}
+		}
+	}
+}
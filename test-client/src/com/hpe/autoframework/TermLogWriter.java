@@ -0,0 +1,456 @@
+package com.hpe.autoframework;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ *
+ * Asynchronous terminal log writer.
+ * The receiving thread hands data chunks to a bounded ring buffer,
+ * a few flusher threads shared by all the writers write them to one open file channel of each writer.
+ * The ring buffer starts small and grows up to the max size while the flushers can't keep up.
+ * The log file is switched when the evidence directory is changed.
+ *
+ */
+public class TermLogWriter {
+
+	/**
+	 * Default initial ring buffer size in character
+	 */
+	private static final int INITIAL_BUF_SIZE = 1024 * 8;
+
+	/**
+	 * Default max ring buffer size in character
+	 */
+	private static final int DEFAULT_BUF_SIZE = 1024 * 256;
+
+	/**
+	 * Default flush threshold in character
+	 */
+	private static final int DEFAULT_FLUSH_SIZE = 1024 * 32;
+
+	/**
+	 * Default flush interval in millisecond
+	 */
+	private static final long DEFAULT_FLUSH_INTERVAL = 200L;
+
+	/**
+	 * Default number of the shared flusher threads
+	 */
+	private static final int DEFAULT_FLUSH_THREADS = 1;
+
+	/**
+	 * All opened writers, flushed at the end of each scenario, removed when closed
+	 */
+	private static final Set<TermLogWriter> writers_ = Collections.synchronizedSet(new HashSet<TermLogWriter>());
+
+	/**
+	 * Flusher threads shared by all the writers, created at the first use
+	 */
+	private static ScheduledExecutorService flushers_;
+
+	/**
+	 * Log file name in evidence directory
+	 */
+	private String filename_;
+
+	/**
+	 * Ring buffer
+	 */
+	private char[] ring_;
+
+	/**
+	 * Max ring buffer size in character
+	 */
+	private int maxBufSize_;
+
+	/**
+	 * Read position of ring buffer
+	 */
+	private int head_ = 0;
+
+	/**
+	 * Number of characters in ring buffer
+	 */
+	private int count_ = 0;
+
+	/**
+	 * Flush threshold in character
+	 */
+	private int flushSize_;
+
+	/**
+	 * Flush interval in nanosecond
+	 */
+	private long flushInterval_;
+
+	/**
+	 * Total number of characters put into ring buffer
+	 */
+	private long putTotal_ = 0L;
+
+	/**
+	 * Total number of characters written to log file
+	 */
+	private long writtenTotal_ = 0L;
+
+	/**
+	 * Drain of the ring buffer is scheduled and the buffer is not emptied yet
+	 */
+	private boolean scheduled_ = false;
+
+	/**
+	 * Immediate drain is submitted and not started yet
+	 */
+	private boolean urgent_ = false;
+
+	/**
+	 * Closed flag
+	 */
+	private boolean closed_ = false;
+
+	/**
+	 * Ring buffer lock
+	 */
+	private Lock lock_ = new ReentrantLock();
+
+	/**
+	 * Ring buffer not full condition variable
+	 */
+	private Condition notFullCond_ = lock_.newCondition();
+
+	/**
+	 * Data written condition variable
+	 */
+	private Condition writtenCond_ = lock_.newCondition();
+
+	/**
+	 * Lock of the log file held while a flusher writes, keeps the order of the data
+	 */
+	private final Object fileLock_ = new Object();
+
+	/**
+	 * Log file path to write new data into
+	 */
+	private Path logfile_;
+
+	/**
+	 * Log file path currently opened
+	 */
+	private Path openedLogfile_;
+
+	/**
+	 * Log file channel
+	 */
+	private FileChannel channel_;
+
+	/**
+	 * Log file writer on the channel
+	 */
+	private Writer writer_;
+
+	/**
+	 * IOException of flusher thread
+	 */
+	private IOException exp_;
+
+	/**
+	 * Drain of the ring buffer run by the flusher threads
+	 */
+	private final Runnable drain_ = new Runnable() {
+		public void run() {
+			drain();
+		}
+	};
+
+	/**
+	 * Constructor
+	 * Max buffer size, flush size and flush interval are read from TermLogBufferSize, TermLogFlushSize
+	 * and TermLogFlushInterval(millisecond) configuration if they exist.
+	 * @param filename log file name in evidence directory
+	 */
+	public TermLogWriter(String filename) {
+		filename_ = filename;
+		int bufsize = Configure.getConfigAsInt("TermLogBufferSize");
+		int flushsize = Configure.getConfigAsInt("TermLogFlushSize");
+		int interval = Configure.getConfigAsInt("TermLogFlushInterval");
+		maxBufSize_ = bufsize > 0 ? bufsize : DEFAULT_BUF_SIZE;
+		ring_ = new char[Math.min(INITIAL_BUF_SIZE, maxBufSize_)];
+		flushSize_ = Math.min(flushsize > 0 ? flushsize : DEFAULT_FLUSH_SIZE, maxBufSize_);
+		flushInterval_ = TimeUnit.MILLISECONDS.toNanos(interval > 0 ? interval : DEFAULT_FLUSH_INTERVAL);
+		writers_.add(this);
+	}
+
+	/**
+	 * Get flusher threads shared by all the writers.
+	 * Number of threads is read from TermLogFlushThreads configuration if it exists.
+	 * @return flusher threads
+	 */
+	private static synchronized ScheduledExecutorService getFlushers() {
+		if (flushers_ == null) {
+			int threads = Configure.getConfigAsInt("TermLogFlushThreads");
+			flushers_ = Executors.newScheduledThreadPool(threads > 0 ? threads : DEFAULT_FLUSH_THREADS, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "TermLogWriter");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return flushers_;
+	}
+
+	/**
+	 * Flush all opened terminal log writers
+	 * Call this method at the end of each scenario.
+	 */
+	public static void flushAll() {
+		TermLogWriter[] writers;
+		synchronized (writers_) {
+			writers = writers_.toArray(new TermLogWriter[0]);
+		}
+		for (TermLogWriter writer : writers) {
+			try {
+				writer.flush();
+			} catch (IOException exp) {
+				// ignore, reported to the session by the next write
+			}
+		}
+	}
+
+	/**
+	 * Put data into ring buffer, it blocks while ring buffer is full
+	 * @param buf data to write
+	 * @param offset offset of the data in buffer
+	 * @param len length of the data in buffer
+	 * @throws IOException throw when I/O error happens in flusher thread
+	 */
+	public void write(char[] buf, int offset, int len) throws IOException {
+		Path logfile = ExProgressFormatter.getEvidenceDirName().resolve(filename_);
+		if (!logfile.equals(logfile_)) {
+			// switch to the new log file after the data of old file is written
+			flush();
+			lock_.lock();
+			try {
+				logfile_ = logfile;
+			} finally {
+				lock_.unlock();
+			}
+		}
+
+		lock_.lock();
+		try {
+			while (len > 0) {
+				checkFlusherException();
+				if (closed_)
+					throw new IOException("Term log file " + logfile_ + " closed");
+				if (count_ == ring_.length) {
+					if (ring_.length < maxBufSize_) {
+						grow();
+						continue;
+					}
+					requestDrain();
+					notFullCond_.awaitUninterruptibly();
+					continue;
+				}
+				int tail = (head_ + count_) % ring_.length;
+				int size = Math.min(len, Math.min(ring_.length - count_, ring_.length - tail));
+				System.arraycopy(buf, offset, ring_, tail, size);
+				count_ += size;
+				putTotal_ += size;
+				offset += size;
+				len -= size;
+			}
+			if (count_ >= flushSize_) {
+				requestDrain();
+			} else if (!scheduled_) {
+				// the flush interval starts when the first data arrives after idle
+				scheduled_ = true;
+				getFlushers().schedule(drain_, flushInterval_, TimeUnit.NANOSECONDS);
+			}
+		} finally {
+			lock_.unlock();
+		}
+	}
+
+	/**
+	 * Wait until all the data put into ring buffer is written to log file
+	 * @throws IOException throw when I/O error happens in flusher thread
+	 */
+	public void flush() throws IOException {
+		lock_.lock();
+		try {
+			long target = putTotal_;
+			while (writtenTotal_ < target && exp_ == null) {
+				requestDrain();
+				writtenCond_.awaitUninterruptibly();
+			}
+			checkFlusherException();
+		} finally {
+			lock_.unlock();
+		}
+	}
+
+	/**
+	 * Flush the remained data and close log file
+	 */
+	public void close() {
+		try {
+			flush();
+		} catch (IOException exp) {
+			// ignore, the data can't be written any more
+		}
+		lock_.lock();
+		try {
+			closed_ = true;
+			notFullCond_.signalAll();
+		} finally {
+			lock_.unlock();
+		}
+		synchronized (fileLock_) {
+			closeLogFile();
+		}
+		writers_.remove(this);
+	}
+
+	/**
+	 * Submit the drain to the flusher threads without waiting for the flush interval, lock_ must be held
+	 */
+	private void requestDrain() {
+		if (urgent_)
+			return;
+		urgent_ = true;
+		scheduled_ = true;
+		getFlushers().execute(drain_);
+	}
+
+	/**
+	 * Grow the ring buffer up to the max size, lock_ must be held
+	 */
+	private void grow() {
+		char[] ring = new char[(int)Math.min((long)ring_.length * 2, maxBufSize_)];
+		int first = Math.min(count_, ring_.length - head_);
+		System.arraycopy(ring_, head_, ring, 0, first);
+		System.arraycopy(ring_, 0, ring, first, count_ - first);
+		ring_ = ring;
+		head_ = 0;
+	}
+
+	/**
+	 * Write the data in ring buffer to log file, run by the flusher threads.
+	 * The data put while writing is drained by the next run, so the other writers are not kept waiting.
+	 */
+	private void drain() {
+		synchronized (fileLock_) {
+			char[] ring;
+			int head;
+			int size;
+			Path logfile;
+			lock_.lock();
+			try {
+				urgent_ = false;
+				if (count_ == 0 || exp_ != null || closed_) {
+					scheduled_ = false;
+					return;
+				}
+				// the data is written from the ring buffer, the writer appends only after it
+				ring = ring_;
+				head = head_;
+				size = count_;
+				logfile = logfile_;
+			} finally {
+				lock_.unlock();
+			}
+
+			IOException exp = null;
+			try {
+				openLogFile(logfile);
+				int first = Math.min(size, ring.length - head);
+				writer_.write(ring, head, first);
+				writer_.write(ring, 0, size - first);
+				writer_.flush();
+			} catch (IOException e) {
+				exp = e;
+			}
+
+			lock_.lock();
+			try {
+				// the ring buffer may be grown while writing, the data starts at head_ in any case
+				head_ = (head_ + size) % ring_.length;
+				count_ -= size;
+				writtenTotal_ += size;
+				if (exp != null)
+					exp_ = exp;
+				if (count_ == 0 || exp_ != null)
+					scheduled_ = false;
+				else if (count_ >= flushSize_)
+					requestDrain();
+				else if (!urgent_)
+					getFlushers().schedule(drain_, flushInterval_, TimeUnit.NANOSECONDS);
+				writtenCond_.signalAll();
+				notFullCond_.signalAll();
+			} finally {
+				lock_.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Open log file channel if the log file is changed
+	 * @param logfile log file to write
+	 * @throws IOException throw when I/O error happens
+	 */
+	private void openLogFile(Path logfile) throws IOException {
+		if (logfile.equals(openedLogfile_))
+			return;
+		closeLogFile();
+		try {
+			channel_ = FileChannel.open(logfile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		} catch (IOException exp) {
+			throw new IOException("Term log file " + logfile + " open failed", exp);
+		}
+		writer_ = Channels.newWriter(channel_, StandardCharsets.UTF_8.newEncoder(), -1);
+		openedLogfile_ = logfile;
+	}
+
+	/**
+	 * Close log file channel
+	 */
+	private void closeLogFile() {
+		try {
+			if (writer_ != null)
+				writer_.close();
+			else if (channel_ != null)
+				channel_.close();
+		} catch (IOException exp) {
+			// ignore
+		}
+		writer_ = null;
+		channel_ = null;
+		openedLogfile_ = null;
+	}
+
+	/**
+	 * Throw the IOException happened in flusher thread
+	 * @throws IOException IOException happened in flusher thread
+	 */
+	private void checkFlusherException() throws IOException {
+		if (exp_ != null)
+			throw exp_;
+	}
+}
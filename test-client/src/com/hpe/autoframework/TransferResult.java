@@ -0,0 +1,134 @@
+package com.hpe.autoframework;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * Result of the file transfer between local and remote host.
+ * It includes transferred bytes and elapsed time to calculate throughput,
+ * or the exception if the transfer failed.
+ *
+ */
+public class TransferResult {
+
+	/**
+	 * Remote file name
+	 */
+	private String filename_;
+
+	/**
+	 * Local file path
+	 */
+	private Path localPath_;
+
+	/**
+	 * Transferred bytes
+	 */
+	private long bytes_;
+
+	/**
+	 * Elapsed time in nanosecond
+	 */
+	private long elapsed_;
+
+	/**
+	 * Exception of the failed transfer, null if succeeded
+	 */
+	private Throwable exception_;
+
+	/**
+	 * Constructor
+	 * @param filename remote file name
+	 * @param localPath local file path
+	 * @param bytes transferred bytes
+	 * @param elapsed elapsed time in nanosecond
+	 */
+	public TransferResult(String filename, Path localPath, long bytes, long elapsed) {
+		filename_ = filename;
+		localPath_ = localPath;
+		bytes_ = bytes;
+		elapsed_ = elapsed;
+	}
+
+	/**
+	 * Constructor of the failed transfer
+	 * @param filename remote file name
+	 * @param localPath local file path
+	 * @param bytes transferred bytes before failure
+	 * @param elapsed elapsed time in nanosecond
+	 * @param exception exception of the failure
+	 */
+	public TransferResult(String filename, Path localPath, long bytes, long elapsed, Throwable exception) {
+		this(filename, localPath, bytes, elapsed);
+		exception_ = exception;
+	}
+
+	/**
+	 * Check whether the transfer succeeded
+	 * @return true: succeeded   false: failed
+	 */
+	public boolean isSucceeded() {
+		return exception_ == null;
+	}
+
+	/**
+	 * Get exception of the failed transfer
+	 * @return exception, null if succeeded
+	 */
+	public Throwable getException() {
+		return exception_;
+	}
+
+	/**
+	 * Get remote file name
+	 * @return remote file name
+	 */
+	public String getFilename() {
+		return filename_;
+	}
+
+	/**
+	 * Get local file path
+	 * @return local file path
+	 */
+	public Path getLocalPath() {
+		return localPath_;
+	}
+
+	/**
+	 * Get transferred bytes
+	 * @return transferred bytes
+	 */
+	public long getBytes() {
+		return bytes_;
+	}
+
+	/**
+	 * Get elapsed time
+	 * @return elapsed time in millisecond
+	 */
+	public long getElapsedMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(elapsed_);
+	}
+
+	/**
+	 * Get throughput
+	 * @return transferred bytes per second
+	 */
+	public long getBytesPerSecond() {
+		if (elapsed_ <= 0L)
+			return bytes_;
+		return (long)(bytes_ * (double)TimeUnit.SECONDS.toNanos(1) / elapsed_);
+	}
+
+	/**
+	 * Get the text representation of the result
+	 * @return text representation
+	 */
+	public String toString() {
+		if (exception_ != null)
+			return filename_ + ": failed after " + bytes_ + " bytes (" + exception_ + ")";
+		return filename_ + ": " + bytes_ + " bytes in " + getElapsedMillis() + " ms (" + getBytesPerSecond() + " bytes/sec)";
+	}
+}